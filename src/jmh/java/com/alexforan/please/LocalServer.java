@@ -0,0 +1,104 @@
+package com.alexforan.please;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP server on the loopback interface, so that benchmarks measure Please rather than
+ * the network.
+ * 
+ * Serves <code>/bytes/{n}</code> (n bytes of data), <code>/json/{n}</code> (a JSON array of n
+ * objects) and <code>/sink</code> (reads and discards the request body).
+ * 
+ * @author forana
+ */
+public class LocalServer {
+    static {
+        // otherwise Nagle's algorithm adds ~40ms to small responses, drowning out everything else
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    public LocalServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/bytes/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = new byte[sizeFrom(exchange)];
+                Arrays.fill(body, (byte) 'x');
+                respond(exchange, "application/octet-stream", body);
+            }
+        });
+        server.createContext("/json/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, "application/json", jsonArray(sizeFrom(exchange)));
+            }
+        });
+        server.createContext("/sink", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                }
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * The base URL of the server, e.g. <code>http://127.0.0.1:54321</code>.
+     */
+    public String getURL() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Builds a JSON array of <code>count</code> small objects.
+     */
+    public static byte[] jsonArray(int count) {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":").append(i).append(",\"name\":\"item ").append(i).append("\",\"active\":true}");
+        }
+        return builder.append(']').toString().getBytes();
+    }
+
+    private static int sizeFrom(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        return Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.alexforan.please;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicNameValuePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alexforan.please.exceptions.HTTPException;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Benchmarks of the request-building and body-reading steps in isolation, with no I/O, so that
+ * their CPU and allocation costs aren't hidden by the network.
+ * 
+ * @author forana
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    @Param({ "1024", "1048576" })
+    public int bodySize;
+
+    private HTTPRequestFactory factory;
+
+    private HTTPResponse bytesResponse;
+
+    private HTTPResponse jsonResponse;
+
+    private Form form;
+
+    // the same fields, for the URLEncodedUtils baseline
+    private List<NameValuePair> formFields;
+
+    private final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        factory = new HTTPRequestFactory();
+
+        byte[] bytes = new byte[bodySize];
+        Arrays.fill(bytes, (byte) 'x');
+        bytesResponse = inMemoryResponse(bytes, ContentType.APPLICATION_OCTET_STREAM);
+        // roughly bodySize bytes of JSON
+        jsonResponse = inMemoryResponse(LocalServer.jsonArray(bodySize / 48), ContentType.APPLICATION_JSON);
+
+        form = new Form();
+        formFields = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            form.add("field" + i, "v\u00e4lue & another/" + i);
+            formFields.add(new BasicNameValuePair("field" + i, "v\u00e4lue & another/" + i));
+        }
+    }
+
+    private HTTPResponse inMemoryResponse(byte[] body, ContentType type) {
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        // repeatable, so every read gets a fresh stream
+        response.setEntity(new ByteArrayEntity(body, type));
+        return new HTTPResponse(response, null);
+    }
+
+    @Benchmark
+    public byte[] getBytes() throws HTTPException {
+        return bytesResponse.getBytes();
+    }
+
+    @Benchmark
+    public JsonNode getJSON() throws HTTPException {
+        return jsonResponse.getJSON();
+    }
+
+    @Benchmark
+    public URI buildURI() throws HTTPException {
+        HTTPRequest request = factory.get("http://example.com/search?q=initial");
+        for (int i = 0; i < 20; i++) {
+            request.parameter("param" + i, "some value/" + i);
+        }
+        return request.buildURI();
+    }
+
+    /**
+     * How the parameters were added before {@link HTTPRequest#buildURI()} encoded them itself.
+     */
+    @Benchmark
+    public URI buildURIWithURIBuilder() throws URISyntaxException {
+        URIBuilder builder = new URIBuilder(new URI("http://example.com/search?q=initial"));
+        for (int i = 0; i < 20; i++) {
+            builder.addParameter("param" + i, "some value/" + i);
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public void formEntity() throws IOException {
+        form.getEntity("UTF-8").writeTo(sink);
+    }
+
+    /**
+     * How a form was encoded before {@link Form} had its own entity.
+     */
+    @Benchmark
+    public void formEntityWithURLEncodedUtils() throws IOException {
+        String body = URLEncodedUtils.format(formFields, "UTF-8");
+        new StringEntity(body, ContentType.APPLICATION_FORM_URLENCODED).writeTo(sink);
+    }
+}
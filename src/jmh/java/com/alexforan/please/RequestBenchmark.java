@@ -0,0 +1,155 @@
+package com.alexforan.please;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alexforan.please.exceptions.HTTPException;
+import com.alexforan.please.util.BufferPool;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * End-to-end benchmarks of sending requests and reading responses against a {@link LocalServer}.
+ * 
+ * Reports throughput and sampled latency (with percentiles); run with <code>-prof gc</code> (the
+ * default for <code>gradle jmh</code>) to see allocation rates too.
+ * 
+ * @author forana
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestBenchmark {
+    private static final int LARGE_SIZE = 1024 * 1024;
+
+    private LocalServer server;
+
+    private HTTPRequestFactory factory;
+
+    private HTTPRequestTemplate bytesTemplate;
+
+    private HTTPRequestFactory pooledFactory;
+
+    private Map<String, Object> jsonPayload;
+
+    private byte[] multipartPayload;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new LocalServer();
+        factory = new HTTPRequestFactory(server.getURL())
+                .setMaxConnectionsPerRoute(64);
+        bytesTemplate = factory.template("GET", "/bytes/{size}");
+        pooledFactory = new HTTPRequestFactory(server.getURL())
+                .setMaxConnectionsPerRoute(64)
+                .setBufferPool(new BufferPool(LARGE_SIZE, 8));
+
+        jsonPayload = new TreeMap<>();
+        List<Integer> numbers = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            numbers.add(i);
+        }
+        jsonPayload.put("name", "benchmark");
+        jsonPayload.put("numbers", numbers);
+
+        multipartPayload = new byte[64 * 1024];
+    }
+
+    @TearDown
+    public void tearDown() {
+        factory.close();
+        pooledFactory.close();
+        server.stop();
+    }
+
+    @Benchmark
+    public byte[] getSmall() throws HTTPException {
+        return factory.get("/bytes/64").send().getBytes();
+    }
+
+    @Benchmark
+    public byte[] getSmallFromTemplate() throws HTTPException {
+        return bytesTemplate.request(64).send().getBytes();
+    }
+
+    @Benchmark
+    public byte[] getLarge() throws HTTPException {
+        return factory.get("/bytes/" + LARGE_SIZE).send().getBytes();
+    }
+
+    @Benchmark
+    public int withBodyLarge() throws HTTPException {
+        return factory.get("/bytes/" + LARGE_SIZE).send().withBody(body -> body.get(body.limit() - 1));
+    }
+
+    @Benchmark
+    public int withBodyLargePooled() throws HTTPException {
+        return pooledFactory.get("/bytes/" + LARGE_SIZE).send().withBody(body -> body.get(body.limit() - 1));
+    }
+
+    @Benchmark
+    @Threads(16)
+    public byte[] getSmallConcurrent() throws HTTPException {
+        return factory.get("/bytes/64").send().getBytes();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public byte[] getLargeConcurrent() throws HTTPException {
+        return factory.get("/bytes/" + LARGE_SIZE).send().getBytes();
+    }
+
+    @Benchmark
+    public byte[] getSmallAsync() throws HTTPException, InterruptedException, ExecutionException {
+        return factory.get("/bytes/64").sendAsync().get().getBytes();
+    }
+
+    @Benchmark
+    public JsonNode getJSON() throws HTTPException {
+        return factory.get("/json/1000").send().getJSON();
+    }
+
+    @Benchmark
+    public int postJSON() throws HTTPException {
+        return factory.post("/sink").jsonBody(jsonPayload).send().getStatus();
+    }
+
+    @Benchmark
+    public int postForm() throws HTTPException {
+        Form form = new Form();
+        for (int i = 0; i < 50; i++) {
+            form.add("field" + i, "some value & another " + i);
+        }
+        return factory.post("/sink").body(form).send().getStatus();
+    }
+
+    @Benchmark
+    public int postMultipart() throws HTTPException {
+        return factory.post("/sink")
+                .body(new MultipartFormData()
+                        .field("name", "benchmark")
+                        .data("file", multipartPayload))
+                .send()
+                .getStatus();
+    }
+}
@@ -0,0 +1,398 @@
+package com.alexforan.please;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.alexforan.please.exceptions.HTTPCircuitOpenException;
+import com.alexforan.please.util.Routes;
+import com.alexforan.please.util.SlidingWindow;
+
+/**
+ * Stops sending requests to a route that's failing, for use with
+ * {@link HTTPRequestFactory#setCircuitBreakerPolicy(CircuitBreakerPolicy)}. Supports builder-style
+ * population and chaining.
+ *
+ * Each route (scheme, host and port) gets its own breaker, which starts closed and lets everything
+ * through. Once enough calls have been seen and too many of those in the window failed or were
+ * slow, it opens, and requests fail immediately with {@link HTTPCircuitOpenException} instead of
+ * waiting on a server that's down. After the open duration it goes half-open and lets a few probe
+ * requests through - if they all succeed it closes again, and if any fails it reopens.
+ *
+ * A call fails if it throws, or if its status is one of the failure statuses (by default 502, 503
+ * and 504). Requests that are aborted or cancelled don't count either way.
+ *
+ * Settings should be made before the policy is in use, since routes capture them on their first
+ * request.
+ *
+ * @author forana
+ */
+public class CircuitBreakerPolicy {
+    /**
+     * The states of a route's breaker.
+     */
+    public enum State {
+        /** Requests are sent and their outcomes counted. */
+        CLOSED,
+        /** Requests fail without being sent. */
+        OPEN,
+        /** A limited number of probe requests are sent to see whether the route has recovered. */
+        HALF_OPEN
+    }
+
+    private double failureRateThreshold = 0.5;
+
+    private double slowCallRateThreshold = 1.0;
+
+    private long slowCallNanos = TimeUnit.SECONDS.toNanos(60);
+
+    private long windowMillis = TimeUnit.SECONDS.toMillis(10);
+
+    private int minimumCalls = 20;
+
+    private long openNanos = TimeUnit.SECONDS.toNanos(30);
+
+    private int probes = 5;
+
+    private Set<Integer> failureStatuses = new HashSet<>(Arrays.asList(502, 503, 504));
+
+    private final ConcurrentMap<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+    private final Map<State, LongAdder> transitions = new ConcurrentHashMap<>();
+
+    private final LongAdder rejected = new LongAdder();
+
+    public CircuitBreakerPolicy() {
+        for (State state : State.values()) {
+            transitions.put(state, new LongAdder());
+        }
+    }
+
+    /**
+     * Sets the fraction of calls in the window that must fail for the breaker to open. Defaults to
+     * 0.5.
+     *
+     * @return this
+     */
+    public CircuitBreakerPolicy setFailureRateThreshold(double value) {
+        failureRateThreshold = value;
+        return this;
+    }
+
+    /**
+     * Sets what counts as a slow call, and the fraction of calls in the window that must be slow
+     * for the breaker to open. By default calls over 60 seconds are slow, and open the breaker
+     * only if every call in the window is.
+     *
+     * @param rate The fraction of slow calls, from 0 to 1.
+     * @param duration How long a call must take, until its response arrives, to be slow.
+     * @param unit
+     * @return this
+     */
+    public CircuitBreakerPolicy setSlowCallThreshold(double rate, long duration, TimeUnit unit) {
+        slowCallRateThreshold = rate;
+        slowCallNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Sets how far back calls are counted. Defaults to 10 seconds.
+     *
+     * @return this
+     */
+    public CircuitBreakerPolicy setWindow(long duration, TimeUnit unit) {
+        windowMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    /**
+     * Sets how many calls the window must hold before the breaker can open. Defaults to 20.
+     *
+     * @return this
+     */
+    public CircuitBreakerPolicy setMinimumCalls(int value) {
+        minimumCalls = value;
+        return this;
+    }
+
+    /**
+     * Sets how long the breaker stays open before letting probes through. Defaults to 30 seconds.
+     *
+     * @return this
+     */
+    public CircuitBreakerPolicy setOpenDuration(long duration, TimeUnit unit) {
+        openNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Sets how many probe requests are let through while half-open. Defaults to 5.
+     *
+     * @return this
+     */
+    public CircuitBreakerPolicy setProbes(int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("There must be at least one probe");
+        }
+        probes = value;
+        return this;
+    }
+
+    /**
+     * Sets the response statuses that count as failures. Defaults to 502, 503 and 504.
+     *
+     * @return this
+     */
+    public CircuitBreakerPolicy setFailureStatuses(Integer... values) {
+        failureStatuses = new HashSet<>(Arrays.asList(values));
+        return this;
+    }
+
+    /**
+     * Retrieves the state of the breaker for the route of <code>url</code>.
+     */
+    public State getState(String url) {
+        Breaker breaker = breakers.get(Routes.of(url));
+        return breaker == null ? State.CLOSED : breaker.getState();
+    }
+
+    /**
+     * Retrieves the state of every route that has been used, keyed by route.
+     */
+    public Map<String, State> getStates() {
+        Map<String, State> states = new TreeMap<>();
+        for (Map.Entry<String, Breaker> entry : breakers.entrySet()) {
+            states.put(entry.getKey(), entry.getValue().getState());
+        }
+        return states;
+    }
+
+    /**
+     * Retrieves the number of times any breaker has changed into <code>state</code>.
+     */
+    public long getTransitions(State state) {
+        return transitions.get(state).sum();
+    }
+
+    /**
+     * Retrieves the number of requests failed without being sent.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Asks the breaker for <code>uri</code>'s route whether a request may be sent.
+     *
+     * @return The permit to send it, which must be told the outcome.
+     * @throws HTTPCircuitOpenException If it may not.
+     */
+    Permit acquire(URI uri) throws HTTPCircuitOpenException {
+        String route = Routes.of(uri);
+        Breaker breaker = breakers.get(route);
+        if (breaker == null) {
+            breakers.putIfAbsent(route, new Breaker());
+            breaker = breakers.get(route);
+        }
+        Permit permit = breaker.tryAcquire();
+        if (permit == null) {
+            rejected.increment();
+            throw new HTTPCircuitOpenException("Circuit breaker for " + route + " is " + breaker.getState());
+        }
+        return permit;
+    }
+
+    /**
+     * A breaker's state, along with - while half-open - how many probes may still be let through
+     * and how many have passed. They're replaced together, so a probe can never be counted against
+     * a trial that hasn't started yet. The generation goes up with every change of state, so an
+     * outcome can be told apart from those of requests let through in an earlier state.
+     */
+    private static final class Phase {
+        private final State state;
+
+        private final long generation;
+
+        private final int probesLeft;
+
+        private final int probesPassed;
+
+        Phase(State state, long generation, int probesLeft, int probesPassed) {
+            this.state = state;
+            this.generation = generation;
+            this.probesLeft = probesLeft;
+            this.probesPassed = probesPassed;
+        }
+
+        Phase next(State to, int probes) {
+            return new Phase(to, generation + 1, probes, 0);
+        }
+
+        Phase withProbes(int left, int passed) {
+            return new Phase(state, generation, left, passed);
+        }
+    }
+
+    /**
+     * Leave from a breaker to send one request, remembering the phase it was given in.
+     */
+    static final class Permit {
+        private final Breaker breaker;
+
+        private final long generation;
+
+        Permit(Breaker breaker, long generation) {
+            this.breaker = breaker;
+            this.generation = generation;
+        }
+
+        /**
+         * Records the outcome of the request.
+         *
+         * @param status The response status, or -1 if it failed.
+         * @param nanos How long it took to get a response or fail.
+         */
+        void record(int status, long nanos) {
+            breaker.record(generation, status, nanos);
+        }
+
+        /**
+         * Gives the permit back for a request that was abandoned, so it counts for nothing.
+         */
+        void release() {
+            breaker.release(generation);
+        }
+    }
+
+    /**
+     * The breaker for one route. Lock-free - every change of state is a compare-and-set, so each
+     * transition happens once however many threads notice it.
+     *
+     * Outcomes only count in the phase their request was let through in. A request sent while
+     * closed that finishes during a trial isn't a probe, and a probe from a trial that has since
+     * failed says nothing about the next one.
+     */
+    final class Breaker {
+        private final SlidingWindow window = new SlidingWindow(windowMillis, 10);
+
+        private final AtomicReference<Phase> phase = new AtomicReference<>(new Phase(State.CLOSED, 0, 0, 0));
+
+        private volatile long openedAt;
+
+        State getState() {
+            return phase.get().state;
+        }
+
+        /**
+         * @return A permit to send a request, or null if none may be sent.
+         */
+        Permit tryAcquire() {
+            while (true) {
+                Phase current = phase.get();
+                switch (current.state) {
+                    case CLOSED:
+                        return new Permit(this, current.generation);
+                    case OPEN:
+                        if (System.nanoTime() - openedAt < openNanos) {
+                            return null;
+                        }
+                        transition(current, current.next(State.HALF_OPEN, probes));
+                        // whoever won, try again in the new state
+                        break;
+                    default:
+                        if (current.probesLeft == 0) {
+                            return null;
+                        }
+                        if (phase.compareAndSet(current,
+                                current.withProbes(current.probesLeft - 1, current.probesPassed))) {
+                            return new Permit(this, current.generation);
+                        }
+                        break;
+                }
+            }
+        }
+
+        private void record(long generation, int status, long nanos) {
+            Phase current = phase.get();
+            if (current.generation != generation) {
+                // let through in an earlier phase, which is over
+                return;
+            }
+            boolean failure = status < 0 || failureStatuses.contains(status);
+            boolean slow = nanos >= slowCallNanos;
+            switch (current.state) {
+                case CLOSED:
+                    window.record(failure, slow);
+                    SlidingWindow.Totals totals = window.getTotals();
+                    if (totals.getCalls() >= minimumCalls
+                            && (totals.getFailures() >= failureRateThreshold * totals.getCalls()
+                                    || totals.getSlowCalls() >= slowCallRateThreshold * totals.getCalls())) {
+                        trip(current);
+                    }
+                    break;
+                case HALF_OPEN:
+                    if (failure || slow) {
+                        trip(current);
+                    } else {
+                        passProbe(current);
+                    }
+                    break;
+                default:
+                    // permits aren't given while open
+                    break;
+            }
+        }
+
+        private void release(long generation) {
+            Phase current;
+            do {
+                current = phase.get();
+                if (current.state != State.HALF_OPEN || current.generation != generation) {
+                    return;
+                }
+            } while (!phase.compareAndSet(current,
+                    current.withProbes(current.probesLeft + 1, current.probesPassed)));
+        }
+
+        private void passProbe(Phase current) {
+            long generation = current.generation;
+            while (current.state == State.HALF_OPEN && current.generation == generation) {
+                if (current.probesPassed + 1 >= probes) {
+                    if (transition(current, current.next(State.CLOSED, 0))) {
+                        window.reset();
+                        return;
+                    }
+                } else if (phase.compareAndSet(current,
+                        current.withProbes(current.probesLeft, current.probesPassed + 1))) {
+                    return;
+                }
+                current = phase.get();
+            }
+        }
+
+        private void trip(Phase seen) {
+            openedAt = System.nanoTime();
+            Phase current = seen;
+            // probes passing at the same moment change the phase without changing its generation
+            while (current.generation == seen.generation && !transition(current, current.next(State.OPEN, 0))) {
+                current = phase.get();
+            }
+        }
+
+        private boolean transition(Phase from, Phase to) {
+            if (phase.compareAndSet(from, to)) {
+                transitions.get(to.state).increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
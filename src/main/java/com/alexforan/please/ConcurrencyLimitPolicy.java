@@ -0,0 +1,146 @@
+package com.alexforan.please;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.alexforan.please.exceptions.HTTPLimitExceededException;
+import com.alexforan.please.util.AdaptiveLimiter;
+import com.alexforan.please.util.Routes;
+
+/**
+ * Limits how many requests are in flight to each route (scheme, host and port) at once, adapting
+ * the limit to how the server is coping, for use with
+ * {@link HTTPRequestFactory#setConcurrencyLimitPolicy(ConcurrencyLimitPolicy)}. Supports
+ * builder-style population and chaining.
+ *
+ * The limit rises by one for each response that comes back in good time while the limit is in use,
+ * and is cut by the backoff ratio for each that doesn't - a response is late if it takes longer
+ * than the tolerance times the fastest recent ones, or is a 429, a 503, or a failure. Requests over
+ * the limit wait for a free slot or are rejected, depending on the {@link LimitMode}.
+ *
+ * A request holds its slot until its response headers arrive.
+ *
+ * @author forana
+ */
+public class ConcurrencyLimitPolicy {
+    private int initialLimit = 20;
+
+    private int minLimit = 1;
+
+    private int maxLimit = 200;
+
+    private double tolerance = 2.0;
+
+    private double backoff = 0.9;
+
+    private LimitMode mode = LimitMode.BLOCK;
+
+    private final ConcurrentMap<String, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+
+    private final LongAdder rejected = new LongAdder();
+
+    public ConcurrencyLimitPolicy() {
+    }
+
+    /**
+     * Sets the limit each route starts with, and the range it can move in. Defaults to starting at
+     * 20, between 1 and 200.
+     *
+     * @return this
+     */
+    public ConcurrencyLimitPolicy setLimits(int initial, int min, int max) {
+        initialLimit = initial;
+        minLimit = min;
+        maxLimit = max;
+        return this;
+    }
+
+    /**
+     * Sets how many times slower than the fastest recent responses a response may be before the
+     * limit is cut. Defaults to 2.
+     *
+     * @return this
+     */
+    public ConcurrencyLimitPolicy setLatencyTolerance(double value) {
+        tolerance = value;
+        return this;
+    }
+
+    /**
+     * Sets the fraction the limit is multiplied by when a response is late. Defaults to 0.9.
+     *
+     * @return this
+     */
+    public ConcurrencyLimitPolicy setBackoffRatio(double value) {
+        backoff = value;
+        return this;
+    }
+
+    /**
+     * Sets what requests over the limit do. Defaults to {@link LimitMode#BLOCK}.
+     *
+     * @return this
+     */
+    public ConcurrencyLimitPolicy setMode(LimitMode value) {
+        mode = value;
+        return this;
+    }
+
+    LimitMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Retrieves the current limit for the route of <code>url</code>.
+     */
+    public int getLimit(String url) {
+        AdaptiveLimiter limiter = limiters.get(Routes.of(url));
+        return limiter == null ? initialLimit : limiter.getLimit();
+    }
+
+    /**
+     * Retrieves the number of requests in flight to the route of <code>url</code>.
+     */
+    public int getInFlight(String url) {
+        AdaptiveLimiter limiter = limiters.get(Routes.of(url));
+        return limiter == null ? 0 : limiter.getInFlight();
+    }
+
+    /**
+     * Retrieves the number of requests failed without being sent.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Takes a slot for a request to <code>uri</code>'s route.
+     *
+     * @return A future that completes with the limiter to release the slot to, or fails with
+     *         {@link HTTPLimitExceededException}. Cancelling it gives up the place in line.
+     */
+    CompletableFuture<AdaptiveLimiter> acquire(URI uri) {
+        String route = Routes.of(uri);
+        AdaptiveLimiter limiter = limiters.get(route);
+        if (limiter == null) {
+            limiters.putIfAbsent(route, new AdaptiveLimiter(initialLimit, minLimit, maxLimit, tolerance, backoff));
+            limiter = limiters.get(route);
+        }
+
+        if (mode != LimitMode.REJECT) {
+            return limiter.acquire();
+        }
+        CompletableFuture<AdaptiveLimiter> future = new CompletableFuture<>();
+        if (limiter.tryAcquire()) {
+            future.complete(limiter);
+        } else {
+            rejected.increment();
+            future.completeExceptionally(new HTTPLimitExceededException(
+                    "Concurrency limit of " + limiter.getLimit() + " for " + route + " reached"));
+        }
+        return future;
+    }
+}
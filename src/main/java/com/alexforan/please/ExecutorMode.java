@@ -0,0 +1,24 @@
+package com.alexforan.please;
+
+/**
+ * The threads a factory runs blocking sends on - those of an {@link HTTPBatch}, hedged copies of
+ * a request, and, with virtual threads, {@link HTTPRequest#sendAsync()}.
+ * 
+ * @author forana
+ */
+public enum ExecutorMode {
+    /**
+     * A pool of daemon threads that grows with demand, whose idle threads exit after a minute.
+     */
+    PLATFORM_THREADS,
+
+    /**
+     * A new virtual thread for each send, which only needs Java 21 or later. A virtual thread
+     * blocked on the network gives up its carrier, so plain blocking sends scale to tens of
+     * thousands at once, limited by the connection pool rather than by threads.
+     * 
+     * {@link HTTPRequest#sendAsync()} then sends with the blocking client on a virtual thread,
+     * rather than with the non-blocking client, and reads the body into memory there.
+     */
+    VIRTUAL_THREADS
+}
@@ -1,23 +1,23 @@
 package com.alexforan.please;
 
-import java.util.LinkedList;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.utils.URLEncodedUtils;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicNameValuePair;
 
+import com.alexforan.please.util.FormEntity;
+
 /**
  * Represents a application/x-www-form-urlencoded form. Supports builder-style chainable calls.
  * 
  * @author forana
  */
 public class Form {
-    private List<NameValuePair> fields = new LinkedList<>();
+    private List<NameValuePair> fields = new ArrayList<>();
 
     public Form() {
     }
@@ -70,10 +70,10 @@ public class Form {
     }
 
     /**
-     * Builds the HttpEntity from this form.
+     * Builds the HttpEntity from this form, which encodes the fields as it's sent and knows its
+     * length in advance.
      */
     protected HttpEntity getEntity(String charset) {
-        String body = URLEncodedUtils.format(fields, charset);
-        return new StringEntity(body, ContentType.APPLICATION_FORM_URLENCODED);
+        return new FormEntity(fields, Charset.forName(charset));
     }
 }
@@ -0,0 +1,330 @@
+package com.alexforan.please;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import com.alexforan.please.exceptions.HTTPException;
+import com.alexforan.please.exceptions.HTTPRequestException;
+
+/**
+ * A set of requests sent together with bounded concurrency. Supports builder-style population and
+ * chaining.
+ *
+ * Instances should be created with {@link HTTPRequestFactory#batch(Collection)}. At most
+ * {@link #setConcurrency(int)} requests are in flight at once, on the factory's worker threads and
+ * pooled connections - the factory's per-route connection limit should be at least as high.
+ *
+ * @author forana
+ */
+public class HTTPBatch {
+    /**
+     * How a batch reacts to a request failing.
+     */
+    public enum ErrorMode {
+        /**
+         * Abort every outstanding request and throw the first failure.
+         */
+        FAIL_FAST,
+
+        /**
+         * Keep going, and report each failure in its {@link Result}.
+         */
+        COLLECT_ALL
+    }
+
+    /**
+     * The outcome of one request in a batch: either a response or an error.
+     */
+    public static class Result {
+        private final int index;
+
+        private final HTTPRequest request;
+
+        private final HTTPResponse response;
+
+        private final HTTPException error;
+
+        Result(int index, HTTPRequest request, HTTPResponse response, HTTPException error) {
+            this.index = index;
+            this.request = request;
+            this.response = response;
+            this.error = error;
+        }
+
+        /**
+         * The position of the request in the collection the batch was created from.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public HTTPRequest getRequest() {
+            return request;
+        }
+
+        /**
+         * The response, or <code>null</code> if the request failed.
+         */
+        public HTTPResponse getResponse() {
+            return response;
+        }
+
+        /**
+         * The reason the request failed, or <code>null</code> if it succeeded.
+         */
+        public HTTPException getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    private final HTTPRequestFactory factory;
+
+    private final List<HTTPRequest> requests;
+
+    private int concurrency = 8;
+
+    private long deadlineNanos = -1;
+
+    private ErrorMode errorMode = ErrorMode.COLLECT_ALL;
+
+    private boolean verify = false;
+
+    /**
+     * Should not be called directly - see {@link HTTPRequestFactory#batch(Collection)}.
+     */
+    protected HTTPBatch(HTTPRequestFactory factory, Collection<HTTPRequest> requests) {
+        this.factory = factory;
+        this.requests = new ArrayList<>(requests);
+    }
+
+    /**
+     * Sets the maximum number of requests in flight at once. Defaults to 8.
+     *
+     * @param value
+     * @return this
+     */
+    public HTTPBatch setConcurrency(int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        concurrency = value;
+        return this;
+    }
+
+    /**
+     * Sets how long the whole batch may take, measured from the start of {@link #send()}. Requests
+     * still outstanding at the deadline are aborted. By default there is no deadline.
+     *
+     * @param duration
+     * @param unit
+     * @return this
+     */
+    public HTTPBatch setDeadline(long duration, TimeUnit unit) {
+        deadlineNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Sets how failures are handled. Defaults to {@link ErrorMode#COLLECT_ALL}.
+     *
+     * @param value
+     * @return this
+     */
+    public HTTPBatch setErrorMode(ErrorMode value) {
+        errorMode = value;
+        return this;
+    }
+
+    /**
+     * Sets whether requests are sent with {@link HTTPRequest#sendAndVerify()}, so that non-20X
+     * responses count as failures. Defaults to false.
+     *
+     * @param value
+     * @return this
+     */
+    public HTTPBatch setVerify(boolean value) {
+        verify = value;
+        return this;
+    }
+
+    /**
+     * Sends every request and waits for them all to finish.
+     *
+     * @return One result per request, in the same order as the requests.
+     * @throws HTTPException In {@link ErrorMode#FAIL_FAST} mode, the first failure - a
+     *             {@link java.util.concurrent.TimeoutException} wrapped in an
+     *             {@link HTTPRequestException} if the deadline passed.
+     */
+    public List<Result> send() throws HTTPException {
+        final Result[] results = new Result[requests.size()];
+        try {
+            send(new Consumer<Result>() {
+                @Override
+                public void accept(Result result) {
+                    results[result.getIndex()] = result;
+                }
+            });
+        } catch (HTTPException | RuntimeException e) {
+            // the caller never sees the results already collected, so their responses are ours to close
+            for (Result result : results) {
+                if (result != null) {
+                    discard(result);
+                }
+            }
+            throw e;
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Sends every request, passing each result to <code>callback</code> as soon as it's available.
+     *
+     * The callback is always invoked on the calling thread, one result at a time. When the deadline
+     * passes in {@link ErrorMode#COLLECT_ALL} mode, requests that had already finished are
+     * reported as usual, and each one that hadn't with a
+     * {@link java.util.concurrent.TimeoutException} wrapped in an {@link HTTPRequestException}.
+     * Responses that are never reported - because the batch failed first, or because they came
+     * back after the deadline - are closed.
+     *
+     * @throws HTTPException In {@link ErrorMode#FAIL_FAST} mode, the first failure.
+     */
+    public void send(Consumer<Result> callback) throws HTTPException {
+        long start = System.nanoTime();
+        CompletionService<Result> completion = new ExecutorCompletionService<>(factory.getExecutor());
+        List<Future<Result>> pending = new ArrayList<>(requests.size());
+        // each result is claimed exactly once - by this thread to report it, or by its task if it
+        // finishes after the batch has given up, to close it
+        AtomicReferenceArray<Result> outcomes = new AtomicReferenceArray<>(requests.size());
+        AtomicBoolean abandoned = new AtomicBoolean();
+        boolean[] reported = new boolean[requests.size()];
+        List<Result> leftover = new ArrayList<>();
+
+        int submitted = 0;
+        int finished = 0;
+        boolean timedOut = false;
+        try {
+            while (submitted < Math.min(concurrency, requests.size())) {
+                pending.add(completion.submit(task(submitted++, outcomes, abandoned)));
+            }
+
+            while (finished < requests.size()) {
+                Future<Result> done;
+                if (deadlineNanos < 0) {
+                    done = completion.take();
+                } else {
+                    done = completion.poll(deadlineNanos - (System.nanoTime() - start), TimeUnit.NANOSECONDS);
+                    if (done == null) {
+                        timedOut = true;
+                        break;
+                    }
+                }
+                finished++;
+
+                Result result = outcomes.getAndSet(done.get().getIndex(), null);
+                reported[result.getIndex()] = true;
+                if (!result.isSuccess() && errorMode == ErrorMode.FAIL_FAST) {
+                    throw result.getError();
+                }
+                if (submitted < requests.size()) {
+                    pending.add(completion.submit(task(submitted++, outcomes, abandoned)));
+                }
+                callback.accept(result);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HTTPRequestException(e);
+        } catch (ExecutionException e) {
+            // tasks catch everything checked, so only unexpected runtime failures get here
+            throw new HTTPRequestException(e.getCause());
+        } finally {
+            abandoned.set(true);
+            // anything that finished before the batch gave up but wasn't taken yet
+            for (int i = 0; i < pending.size(); i++) {
+                Result result = outcomes.getAndSet(i, null);
+                if (result != null) {
+                    leftover.add(result);
+                }
+            }
+            abortUnfinished(pending);
+            if (!timedOut || errorMode == ErrorMode.FAIL_FAST) {
+                for (Result result : leftover) {
+                    discard(result);
+                }
+            }
+        }
+
+        if (timedOut) {
+            TimeoutException timeout = new TimeoutException("Batch deadline exceeded");
+            if (errorMode == ErrorMode.FAIL_FAST) {
+                throw new HTTPRequestException(timeout);
+            }
+            for (Result result : leftover) {
+                reported[result.getIndex()] = true;
+                callback.accept(result);
+            }
+            for (int i = 0; i < requests.size(); i++) {
+                if (!reported[i]) {
+                    callback.accept(new Result(i, requests.get(i), null, new HTTPRequestException(timeout)));
+                }
+            }
+        }
+    }
+
+    private Callable<Result> task(final int index, final AtomicReferenceArray<Result> outcomes,
+            final AtomicBoolean abandoned) {
+        final HTTPRequest request = requests.get(index);
+        return new Callable<Result>() {
+            @Override
+            public Result call() {
+                Result result;
+                try {
+                    HTTPResponse response = verify ? request.sendAndVerify() : request.send();
+                    result = new Result(index, request, response, null);
+                } catch (HTTPException e) {
+                    result = new Result(index, request, null, e);
+                }
+                outcomes.set(index, result);
+                if (abandoned.get() && outcomes.compareAndSet(index, result, null)) {
+                    // nobody is left to take it
+                    discard(result);
+                }
+                return result;
+            }
+        };
+    }
+
+    private static void discard(Result result) {
+        if (result.getResponse() != null) {
+            try {
+                result.getResponse().close();
+            } catch (IOException e) {
+                // the response is being thrown away, so there's nobody to tell
+            }
+        }
+    }
+
+    private void abortUnfinished(List<Future<Result>> pending) {
+        for (int i = 0; i < pending.size(); i++) {
+            if (pending.get(i).cancel(false)) {
+                requests.get(i).abort();
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.alexforan.please;
+
+import java.io.File;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.client.cache.CacheResponseStatus;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.cache.CacheConfig;
+import org.apache.http.impl.client.cache.CachingHttpClientBuilder;
+import org.apache.http.impl.client.cache.FileResourceFactory;
+import org.apache.http.impl.client.cache.HeapResourceFactory;
+
+import com.alexforan.please.util.SizeBoundedCacheStorage;
+
+/**
+ * An HTTP response cache, for use with {@link HTTPRequestFactory#setCache(HTTPCache)}. Supports
+ * builder-style population and chaining.
+ *
+ * Caching follows HTTP semantics: responses are stored and reused according to their
+ * Cache-Control and Expires headers, and stale entries are revalidated with If-None-Match and
+ * If-Modified-Since. By default bodies are kept on the heap and evicted least-recently-used once
+ * they add up to more than {@link #setMaxSize(long)}; they can be kept on disk instead with
+ * {@link #setDirectory(File)}, or the storage can be replaced entirely with
+ * {@link #setStorage(HttpCacheStorage)}.
+ *
+ * A cache should be fully configured before its factory sends the first request. Only requests
+ * sent with {@link HTTPRequest#send()} go through the cache, and a factory using
+ * {@link HTTPProtocol#HTTP_2} can't have one.
+ *
+ * @author forana
+ */
+public class HTTPCache {
+    private long maxSize = 64 * 1024 * 1024;
+
+    private long maxObjectSize = 1024 * 1024;
+
+    private boolean shared = true;
+
+    private File directory;
+
+    private HttpCacheStorage storage;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder validations = new LongAdder();
+
+    public HTTPCache() {
+    }
+
+    /**
+     * Sets the most that cached bodies and headers may add up to, in bytes. Defaults to 64MB.
+     * Ignored if a custom storage is set.
+     *
+     * @return this
+     */
+    public HTTPCache setMaxSize(long bytes) {
+        maxSize = bytes;
+        return this;
+    }
+
+    /**
+     * Sets the largest body that will be cached, in bytes. Defaults to 1MB.
+     *
+     * @return this
+     */
+    public HTTPCache setMaxObjectSize(long bytes) {
+        maxObjectSize = bytes;
+        return this;
+    }
+
+    /**
+     * Sets whether the cache behaves as a shared cache, which won't store responses to
+     * authenticated requests or those marked <code>Cache-Control: private</code>. Defaults to
+     * true - only disable this if the factory's requests all act on behalf of a single user.
+     *
+     * @return this
+     */
+    public HTTPCache setShared(boolean value) {
+        shared = value;
+        return this;
+    }
+
+    /**
+     * Keeps cached bodies as files in <code>directory</code> instead of on the heap.
+     *
+     * @return this
+     */
+    public HTTPCache setDirectory(File value) {
+        directory = value;
+        return this;
+    }
+
+    /**
+     * Replaces the default in-memory LRU index with another storage, such as one of the ehcache
+     * or memcached implementations that ship with httpclient-cache.
+     *
+     * @return this
+     */
+    public HTTPCache setStorage(HttpCacheStorage value) {
+        storage = value;
+        return this;
+    }
+
+    /**
+     * Retrieves the number of responses served straight from the cache.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Retrieves the number of responses that had to be fetched from the server.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Retrieves the number of responses served from the cache after the server confirmed they
+     * were still valid.
+     */
+    public long getValidations() {
+        return validations.sum();
+    }
+
+    /**
+     * Creates a client builder that consults this cache. Every client built shares the same
+     * storage, so a factory's validating and non-validating clients see the same entries.
+     */
+    synchronized HttpClientBuilder createClientBuilder() {
+        if (storage == null) {
+            storage = new SizeBoundedCacheStorage(maxSize);
+        }
+        return CachingHttpClientBuilder.create()
+                .setCacheConfig(CacheConfig.custom()
+                        .setMaxObjectSize(maxObjectSize)
+                        .setSharedCache(shared)
+                        .build())
+                .setHttpCacheStorage(storage)
+                .setResourceFactory(directory == null
+                        ? new HeapResourceFactory()
+                        : new FileResourceFactory(directory));
+    }
+
+    /**
+     * Counts how a response was served.
+     */
+    void record(CacheResponseStatus status) {
+        if (status == null) {
+            return;
+        }
+        switch (status) {
+        case CACHE_HIT:
+            hits.increment();
+            break;
+        case VALIDATED:
+            validations.increment();
+            break;
+        case CACHE_MISS:
+            misses.increment();
+            break;
+        default:
+            // responses generated by the cache module itself (e.g. 504 for only-if-cached)
+            break;
+        }
+    }
+}
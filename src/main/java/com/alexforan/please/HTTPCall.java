@@ -0,0 +1,241 @@
+package com.alexforan.please;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import com.alexforan.please.util.ConnectionEvents;
+import com.alexforan.please.util.Routes;
+
+/**
+ * One attempt at sending a request, as told to an {@link HTTPListener}.
+ *
+ * @author forana
+ */
+public final class HTTPCall {
+    private final List<HTTPListener> listeners;
+
+    private final String method;
+
+    private final URI uri;
+
+    private final long startNanos = System.nanoTime();
+
+    private String route;
+
+    private final AtomicBoolean completed = new AtomicBoolean();
+
+    HTTPCall(List<HTTPListener> listeners, String method, URI uri) {
+        this.listeners = listeners;
+        this.method = method;
+        this.uri = uri;
+    }
+
+    /**
+     * Retrieves the method of the request.
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Retrieves the URL the request was sent to.
+     */
+    public URI getURI() {
+        return uri;
+    }
+
+    /**
+     * Retrieves the route the request was sent over - its scheme, host and port, as in
+     * <code>https://api.example.com:443</code>.
+     */
+    public String getRoute() {
+        if (route == null) {
+            route = Routes.of(uri);
+        }
+        return route;
+    }
+
+    /**
+     * Retrieves when the call started, as a {@link System#nanoTime()}.
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    private long elapsed() {
+        return System.nanoTime() - startNanos;
+    }
+
+    private void fire(Consumer<HTTPListener> event) {
+        for (HTTPListener listener : listeners) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                // a listener can't break the request
+            }
+        }
+    }
+
+    void started() {
+        fire(listener -> listener.requestStarted(this));
+    }
+
+    void sent(long bytes) {
+        long nanos = elapsed();
+        fire(listener -> listener.requestSent(this, bytes, nanos));
+    }
+
+    void responseStarted(int status) {
+        long nanos = elapsed();
+        fire(listener -> listener.responseStarted(this, status, nanos));
+    }
+
+    /**
+     * Tells the listeners the body is done, unless they've been told already.
+     */
+    void responseCompleted(long bytes) {
+        if (!completed.compareAndSet(false, true)) {
+            return;
+        }
+        long nanos = elapsed();
+        fire(listener -> listener.responseCompleted(this, bytes, nanos));
+    }
+
+    void failed(Exception error) {
+        long nanos = elapsed();
+        fire(listener -> listener.requestFailed(this, error, nanos));
+    }
+
+    /**
+     * Passes the connection steps of the blocking client on to the listeners.
+     */
+    ConnectionEvents connectionEvents() {
+        return new ConnectionEvents() {
+            @Override
+            public void dnsResolved(long nanos) {
+                fire(listener -> listener.dnsResolved(HTTPCall.this, nanos));
+            }
+
+            @Override
+            public void connected(long nanos) {
+                fire(listener -> listener.connected(HTTPCall.this, nanos));
+            }
+
+            @Override
+            public void tlsHandshakeCompleted(long nanos) {
+                fire(listener -> listener.tlsHandshakeCompleted(HTTPCall.this, nanos));
+            }
+        };
+    }
+
+    /**
+     * Wraps a request body so that writing it tells the listeners how much was sent.
+     */
+    HttpEntity countSent(HttpEntity body) {
+        return new HttpEntityWrapper(body) {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                final long[] count = new long[1];
+                super.writeTo(new FilterOutputStream(out) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        out.write(b);
+                        count[0]++;
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                        count[0] += len;
+                    }
+                });
+                sent(count[0]);
+            }
+        };
+    }
+
+    /**
+     * Wraps a streaming response body so that reading it to the end, or closing it, tells the
+     * listeners how much was received.
+     */
+    HttpEntity countReceived(HttpEntity body) {
+        return new HttpEntityWrapper(body) {
+            private InputStream counted;
+
+            @Override
+            public InputStream getContent() throws IOException {
+                // a streaming body can only be read once, however many streams it hands out, so
+                // they're all the first one
+                if (counted == null) {
+                    counted = count(super.getContent());
+                }
+                return counted;
+            }
+
+            private InputStream count(InputStream stream) {
+                return new FilterInputStream(stream) {
+                    private long count;
+
+                    @Override
+                    public int read() throws IOException {
+                        int b = super.read();
+                        if (b < 0) {
+                            responseCompleted(count);
+                        } else {
+                            count++;
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int read = super.read(b, off, len);
+                        if (read < 0) {
+                            responseCompleted(count);
+                        } else {
+                            count += read;
+                        }
+                        return read;
+                    }
+
+                    @Override
+                    public long skip(long n) throws IOException {
+                        long skipped = super.skip(n);
+                        count += skipped;
+                        return skipped;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            responseCompleted(count);
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                try (InputStream in = getContent()) {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) >= 0) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+            }
+        };
+    }
+}
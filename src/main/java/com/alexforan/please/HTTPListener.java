@@ -0,0 +1,86 @@
+package com.alexforan.please;
+
+/**
+ * Told about each step of the requests sent by a factory, for use with
+ * {@link HTTPRequestFactory#addListener(HTTPListener)}. Every method does nothing by default, so
+ * an implementation only needs the ones it cares about. {@link MetricsRecorder} is a ready-made
+ * one.
+ *
+ * Each attempt at sending a request is a separate {@link HTTPCall} - retries and hedged copies
+ * start new ones. A call that gets a response is told {@link #responseStarted} and then, once its
+ * body has been read or closed, {@link #responseCompleted}. A call that fails is told
+ * {@link #requestFailed} instead. The connection steps are only told when the call opened a new
+ * connection with the blocking client - not for pooled connections, cached responses or
+ * requests sent with {@link HTTPRequest#sendAsync()}, which also aren't told
+ * {@link #requestSent}.
+ *
+ * Methods are called on whichever thread is sending or reading, while it waits, so they should be
+ * quick and thread-safe. Anything thrown from them is ignored.
+ *
+ * @author forana
+ */
+public interface HTTPListener {
+    /**
+     * The call is about to be sent.
+     */
+    default void requestStarted(HTTPCall call) {
+    }
+
+    /**
+     * The host name was looked up.
+     *
+     * @param nanos How long the lookup took.
+     */
+    default void dnsResolved(HTTPCall call, long nanos) {
+    }
+
+    /**
+     * A TCP connection was established.
+     *
+     * @param nanos How long connecting took.
+     */
+    default void connected(HTTPCall call, long nanos) {
+    }
+
+    /**
+     * The TLS handshake on a new connection finished.
+     *
+     * @param nanos How long the handshake took.
+     */
+    default void tlsHandshakeCompleted(HTTPCall call, long nanos) {
+    }
+
+    /**
+     * The request body was written.
+     *
+     * @param bytes The size of the body as sent, after any compression.
+     * @param nanos The time since the call started.
+     */
+    default void requestSent(HTTPCall call, long bytes, long nanos) {
+    }
+
+    /**
+     * The response status and headers arrived.
+     *
+     * @param nanos The time since the call started - the time to first byte.
+     */
+    default void responseStarted(HTTPCall call, int status, long nanos) {
+    }
+
+    /**
+     * The response body was read to the end, or closed.
+     *
+     * @param bytes How much of the body was read, as sent by the server.
+     * @param nanos The time since the call started.
+     */
+    default void responseCompleted(HTTPCall call, long bytes, long nanos) {
+    }
+
+    /**
+     * The call failed without a response.
+     *
+     * @param nanos The time since the call started.
+     */
+    default void requestFailed(HTTPCall call, Exception error, long nanos) {
+    }
+}
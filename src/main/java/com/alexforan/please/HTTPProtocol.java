@@ -0,0 +1,24 @@
+package com.alexforan.please;
+
+/**
+ * HTTP versions that requests can be sent with.
+ * 
+ * @author forana
+ */
+public enum HTTPProtocol {
+    /**
+     * HTTP/1.1 over a pool of keep-alive connections, each carrying one request at a time.
+     */
+    HTTP_1_1,
+
+    /**
+     * HTTP/2, with concurrent requests to a host multiplexed over one connection. TLS connections
+     * negotiate <code>h2</code> with ALPN, while plain <code>http</code> URLs use <code>h2c</code>
+     * with prior knowledge - either way, the server must support HTTP/2.
+     * 
+     * Request and response bodies are held in memory, and responses are not cached - large
+     * downloads and uploads are better sent with {@link #HTTP_1_1}. Requests with a body added
+     * by {@link HTTPRequest#body(java.nio.file.Path)} are sent over HTTP/1.1 instead.
+     */
+    HTTP_2
+}
@@ -1,33 +1,80 @@
 package com.alexforan.please;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
+import org.apache.http.StatusLine;
+import org.apache.http.client.cache.CacheResponseStatus;
+import org.apache.http.client.cache.HttpCacheContext;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.entity.ContentType;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 
+import com.alexforan.please.exceptions.HTTPCircuitOpenException;
 import com.alexforan.please.exceptions.HTTPRequestException;
 import com.alexforan.please.exceptions.HTTPResponseException;
+import com.alexforan.please.exceptions.HTTPTimeoutException;
+import com.alexforan.please.util.AdaptiveLimiter;
 import com.alexforan.please.util.ArbitraryMethodRequest;
 import com.alexforan.please.util.ArbitraryMethodRequestWithBody;
+import com.alexforan.please.util.BufferPool;
+import com.alexforan.please.util.ConnectionEvents;
+import com.alexforan.please.util.ConnectionPool;
+import com.alexforan.please.util.FileRegionEntity;
+import com.alexforan.please.util.Http2Client;
+import com.alexforan.please.util.JsonEntity;
 import com.alexforan.please.util.NonValidatingClient;
+import com.alexforan.please.util.PercentEncoder;
+import com.alexforan.please.util.Scheduler;
+import com.alexforan.please.util.SingleFlight;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -38,34 +85,116 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  * @author forana
  */
 public class HTTPRequest {
+    /**
+     * Response bodies with a declared length up to this size are read eagerly, so that the
+     * connection goes straight back to the pool even if the body is never touched.
+     */
+    private static final long BUFFERED_BODY_LIMIT = 8192;
+
+    private static final Header[] NO_HEADERS = new Header[0];
+
+    /**
+     * Mapper for requests created without a factory. It's never handed out, so nothing can
+     * reconfigure it, and one instance keeps Jackson's serializer caches warm.
+     */
+    static final ObjectMapper DEFAULT_MAPPER = new ObjectMapper();
+
+    private final HTTPRequestFactory factory;
+
     private String encoding = "UTF-8";
 
     private final String method;
 
     private final String url;
 
+    // parsed once by a template, in place of url
+    private final URI uri;
+
     private boolean verifyCertificates = true;
 
+    private boolean compression;
+
+    private boolean compressBody;
+
+    // the factory's default headers, shared by every request from a template
+    private final Header[] sharedHeaders;
+
     private Map<String, String> headers;
 
     private List<NameValuePair> parameters;
 
     private HttpEntity entity;
 
-    private final ObjectMapper mapper = new ObjectMapper();
+    private long connectTimeoutMillis;
+
+    private long readTimeoutMillis;
+
+    private long leaseTimeoutMillis;
+
+    private long deadlineMillis;
+
+    private RetryPolicy retryPolicy;
+
+    private HedgePolicy hedgePolicy;
+
+    private volatile boolean aborted;
+
+    private volatile boolean timedOut;
+
+    // more than one when a hedged copy is racing the original
+    private final Set<HttpUriRequest> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    // waits for a permit from a limit, for abort() and the deadline to cut short
+    private final Set<Future<?>> waiting = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private volatile ScheduledFuture<?> deadline;
+
+    private volatile long deadlineAt;
 
     /**
-     * Creates a new request with this specified method and URL.
+     * Creates a new request with this specified method and URL, that uses its own connection
+     * rather than a factory's pool.
      * 
      * This should not be called directly from client code - instances of this class should be
      * accessed from {@link com.alexforan.please.Please} or {@link com.alexforan.please.HTTPRequestFactory}.
      */
     protected HTTPRequest(String method, String url) {
+        this(null, method, url);
+    }
+
+    /**
+     * Creates a new request with this specified method and URL, that leases connections from the
+     * factory's pool.
+     * 
+     * This should not be called directly from client code - instances of this class should be
+     * accessed from {@link com.alexforan.please.Please} or {@link com.alexforan.please.HTTPRequestFactory}.
+     */
+    protected HTTPRequest(HTTPRequestFactory factory, String method, String url) {
+        this(factory, method, url, null, NO_HEADERS);
+    }
+
+    /**
+     * Creates a request from an {@link HTTPRequestTemplate}, to a URI it has already built, with
+     * headers it has already built.
+     */
+    HTTPRequest(HTTPRequestFactory factory, String method, URI uri, Header[] sharedHeaders) {
+        this(factory, method, null, uri, sharedHeaders);
+    }
+
+    private HTTPRequest(HTTPRequestFactory factory, String method, String url, URI uri, Header[] sharedHeaders) {
+        this.factory = factory;
+        this.compression = factory == null || factory.isCompression();
+        this.compressBody = factory != null && factory.isCompressRequestBodies();
+        this.connectTimeoutMillis = factory == null ? -1 : factory.getConnectTimeoutMillis();
+        this.readTimeoutMillis = factory == null ? -1 : factory.getReadTimeoutMillis();
+        this.leaseTimeoutMillis = factory == null ? -1 : factory.getLeaseTimeoutMillis();
+        this.deadlineMillis = factory == null ? -1 : factory.getDeadlineMillis();
+        this.retryPolicy = factory == null ? null : factory.getRetryPolicy();
+        this.hedgePolicy = factory == null ? null : factory.getHedgePolicy();
         this.method = method;
         this.url = url;
-
-        headers = new HashMap<>();
-        parameters = new LinkedList<>();
+        this.uri = uri;
+        this.sharedHeaders = sharedHeaders;
     }
 
     /**
@@ -81,6 +210,9 @@ public class HTTPRequest {
      * @return this
      */
     public HTTPRequest header(String name, String value) {
+        if (headers == null) {
+            headers = new HashMap<>();
+        }
         headers.put(name, value);
         return this;
     }
@@ -95,6 +227,9 @@ public class HTTPRequest {
      * @return this
      */
     public HTTPRequest parameter(String key, Object value) {
+        if (parameters == null) {
+            parameters = new ArrayList<>();
+        }
         parameters.add(new BasicNameValuePair(key, value.toString()));
         return this;
     }
@@ -124,31 +259,116 @@ public class HTTPRequest {
     }
 
     /**
-     * Add a JSON body to this request as an {@link com.fasterxml.jackson.databind.JsonNode}.
+     * Add the contents of a file as the body of this request.
      * 
-     * Also sets the Content-Type header.
+     * The file is read through a {@link java.nio.channels.FileChannel} as the request is sent, so
+     * it's never held in memory. Sent without blocking over a plain connection, it's copied
+     * straight from the file to the socket by the kernel. Unlike a stream, the body can be sent
+     * again for retries.
+     * 
+     * The HTTP/2 client holds bodies in memory, so on a factory set to use
+     * {@link HTTPProtocol#HTTP_2} the request is sent over HTTP/1.1 instead.
+     * 
+     * Sets the Content-Type to <code>application/octet-stream</code>, unless a header sets it.
      * 
      * Only one body can be added - if multiple are needed, see {@link #body(MultipartFormData)}.
      * 
-     * @param node
+     * @param path
      * @return this
-     * @throws JsonProcessingException If there's a problem serializing the JsonNode.
-     * @throws HTTPRequestException If there's a general IOException in serialization.
+     * @throws HTTPRequestException If the file's size can't be read.
      */
-    public HTTPRequest body(JsonNode node) throws HTTPRequestException, JsonProcessingException {
-        header("Content-Type", "application/json");
+    public HTTPRequest body(Path path) throws HTTPRequestException {
         try {
-            StringWriter writer = new StringWriter();
-            mapper.getFactory()
-                    .createGenerator(writer)
-                    .writeTree(node);
-            entity = new StringEntity(writer.getBuffer().toString(), ContentType.APPLICATION_JSON);
-            return this;
+            return body(path, 0, Files.size(path));
         } catch (IOException e) {
             throw new HTTPRequestException(e);
         }
     }
 
+    /**
+     * Add part of a file as the body of this request, such as one piece of a chunked upload.
+     * 
+     * @param path
+     * @param position Where in the file the body starts.
+     * @param count How many bytes to send.
+     * @return this
+     * @see #body(Path)
+     */
+    public HTTPRequest body(Path path, long position, long count) {
+        entity = new FileRegionEntity(path, position, count);
+        return this;
+    }
+
+    /**
+     * Asks for only part of the response body, with a <code>Range</code> header. A server that
+     * honors it responds with status 206 and just those bytes - one that doesn't responds with the
+     * whole body as usual.
+     * 
+     * @param first The position of the first byte wanted.
+     * @param last The position of the last byte wanted, inclusive, or -1 for the rest of the body.
+     * @return this
+     * @see HTTPResponse#saveTo(Path, long)
+     */
+    public HTTPRequest range(long first, long last) {
+        if (first < 0 || (last >= 0 && last < first)) {
+            throw new IllegalArgumentException("Invalid range " + first + "-" + last);
+        }
+        return header("Range", "bytes=" + first + "-" + (last < 0 ? "" : Long.toString(last)));
+    }
+
+    /**
+     * Add a JSON body to this request as an {@link com.fasterxml.jackson.databind.JsonNode}.
+     * 
+     * Also sets the Content-Type header.
+     * 
+     * Only one body can be added - if multiple are needed, see {@link #body(MultipartFormData)}.
+     * 
+     * The node is serialized as the request is sent - see {@link #jsonBody(Object)}.
+     * 
+     * @param node
+     * @return this
+     * @throws JsonProcessingException Never - serialization errors surface from {@link #send()}.
+     * @throws HTTPRequestException Never - serialization errors surface from {@link #send()}.
+     */
+    public HTTPRequest body(JsonNode node) throws HTTPRequestException, JsonProcessingException {
+        return jsonBody(node);
+    }
+
+    /**
+     * Add an object as a JSON body to this request, serialized with Jackson databinding.
+     * 
+     * The object is serialized in the configured encoding as the request is sent, and sent with a
+     * Content-Length. As a result, serialization errors surface when the request is sent, and the
+     * object shouldn't be modified until then.
+     * 
+     * Also sets the Content-Type header.
+     * 
+     * Only one body can be added - if multiple are needed, see {@link #body(MultipartFormData)}.
+     * 
+     * @param value Any object Jackson can serialize (a POJO, a Map, a collection, a JsonNode...).
+     * @return this
+     * @see #jsonBody(Object, boolean)
+     */
+    public HTTPRequest jsonBody(Object value) {
+        return jsonBody(value, false);
+    }
+
+    /**
+     * Add an object as a JSON body to this request, optionally serialized straight onto the
+     * connection using chunked transfer, so that no copy of the body is held in memory. Only worth
+     * it for large bodies, and only if the server accepts chunked requests.
+     * 
+     * @param value Any object Jackson can serialize (a POJO, a Map, a collection, a JsonNode...).
+     * @param chunked Whether to stream the body rather than send it with a Content-Length.
+     * @return this
+     * @see #jsonBody(Object)
+     */
+    public HTTPRequest jsonBody(Object value, boolean chunked) {
+        entity = new JsonEntity(getObjectMapper(), value, Charset.forName(encoding), chunked);
+        header("Content-Type", entity.getContentType().getValue());
+        return this;
+    }
+
     /**
      * Add a application/x-www-form-urlencoded body to this request.
      * 
@@ -203,6 +423,46 @@ public class HTTPRequest {
         return this;
     }
 
+    String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Enable/disable response compression. Defaults to true (enabled), or the setting of the
+     * factory this request came from.
+     * 
+     * When enabled, the request advertises <code>Accept-Encoding: gzip, deflate</code> (unless an
+     * Accept-Encoding header was set explicitly) and compressed responses are decompressed as
+     * they're read. When disabled, nothing is advertised and bodies are returned exactly as sent.
+     * Either way, {@link HTTPResponse#getContentEncoding()} tells whether the server compressed it.
+     * 
+     * @param value
+     * @return this
+     */
+    public HTTPRequest setCompression(boolean value) {
+        compression = value;
+        return this;
+    }
+
+    boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Enable/disable gzip compression of this request's body. Defaults to false (disabled), or the
+     * setting of the factory this request came from.
+     * 
+     * The body is compressed as it's sent and labeled with <code>Content-Encoding: gzip</code>.
+     * Only enable this for servers known to accept compressed requests.
+     * 
+     * @param value
+     * @return this
+     */
+    public HTTPRequest setCompressBody(boolean value) {
+        compressBody = value;
+        return this;
+    }
+
     /**
      * Enable/disable certificate verification. Defaults to true (enabled).
      * 
@@ -216,6 +476,89 @@ public class HTTPRequest {
         return this;
     }
 
+    /**
+     * Sets how long to wait for a connection to be established. By default this is the factory's
+     * setting, if any.
+     * 
+     * @param duration
+     * @param unit
+     * @return this
+     */
+    public HTTPRequest setConnectTimeout(long duration, TimeUnit unit) {
+        connectTimeoutMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    /**
+     * Sets how long to wait for data from the server between any two reads, including while
+     * reading the response body. By default this is the factory's setting, if any.
+     * 
+     * @param duration
+     * @param unit
+     * @return this
+     */
+    public HTTPRequest setReadTimeout(long duration, TimeUnit unit) {
+        readTimeoutMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    /**
+     * Sets how long to wait for a pooled connection when every connection to the host is in use.
+     * By default this is the factory's setting, if any.
+     * 
+     * @param duration
+     * @param unit
+     * @return this
+     */
+    public HTTPRequest setLeaseTimeout(long duration, TimeUnit unit) {
+        leaseTimeoutMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    /**
+     * Sets the total time this request may take, measured from the call to {@link #send()} or
+     * {@link #sendAsync()} until the response body has been read. A request still running at the
+     * deadline is aborted. By default this is the factory's setting, if any.
+     * 
+     * Timeouts are reported as {@link HTTPTimeoutException} - or, if they happen while the body is
+     * being read, as an {@link HTTPResponseException} caused by one.
+     * 
+     * @param duration
+     * @param unit
+     * @return this
+     */
+    public HTTPRequest setDeadline(long duration, TimeUnit unit) {
+        deadlineMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    /**
+     * Sets the policy for retrying this request when it fails, or <code>null</code> to send it only
+     * once. By default this is the factory's policy, if any.
+     * 
+     * @param value
+     * @return this
+     */
+    public HTTPRequest setRetryPolicy(RetryPolicy value) {
+        retryPolicy = value;
+        return this;
+    }
+
+    /**
+     * Sets the policy for hedging this request when it's slow, or <code>null</code> to never send
+     * a second copy. By default this is the factory's policy, if any.
+     * 
+     * Only requests created by a factory can be hedged. Hedged requests are never coalesced, since
+     * the copy would only join the original.
+     * 
+     * @param value
+     * @return this
+     */
+    public HTTPRequest setHedgePolicy(HedgePolicy value) {
+        hedgePolicy = value;
+        return this;
+    }
+
     /**
      * Send the request and retrieve a response.
      * 
@@ -224,22 +567,115 @@ public class HTTPRequest {
      *             The thrown exception will wrap that exception.
      */
     public HTTPResponse send() throws HTTPRequestException {
+        inFlight.clear();
+        startDeadline(null);
+        try {
+            HTTPResponse response = sendWithRetries();
+            if (!response.isStreaming()) {
+                // nothing left to read, so nothing left to time out
+                finish();
+            }
+            return response;
+        } catch (HTTPRequestException | RuntimeException e) {
+            finish();
+            throw e;
+        }
+    }
+
+    private HTTPResponse sendWithRetries() throws HTTPRequestException {
+        RetryPolicy policy = getApplicableRetryPolicy();
+        if (policy == null) {
+            return attempt();
+        }
+
+        policy.recordRequest();
+        for (int attempt = 1;; attempt++) {
+            HTTPResponse response = null;
+            HTTPRequestException error = null;
+            try {
+                response = attempt();
+            } catch (HTTPRequestException e) {
+                error = e;
+            }
+
+            long delay = nextDelay(policy, attempt, response, error);
+            if (delay < 0) {
+                if (error != null) {
+                    throw error;
+                }
+                return response;
+            }
+            if (response != null) {
+                response.release();
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new HTTPRequestException(e);
+            }
+        }
+    }
+
+    /**
+     * Sends the request once.
+     */
+    private HTTPResponse attempt() throws HTTPRequestException {
+        HedgePolicy hedge = getApplicableHedgePolicy();
+        if (hedge != null) {
+            // the original runs on this thread once the race is set up, and only a hedged copy
+            // needs a worker
+            List<Runnable> original = new ArrayList<>(1);
+            CompletableFuture<HTTPResponse> race = hedge(hedge,
+                    () -> sendCopy(original::add),
+                    () -> sendCopy(factory.getExecutor()));
+            for (Runnable task : original) {
+                task.run();
+            }
+            return await(race);
+        }
+        if (factory != null && factory.isCoalesceRequests() && entity == null
+                && (method.equals("GET") || method.equals("HEAD"))) {
+            return sendShared();
+        }
+
+        HttpUriRequest request = buildRequest(buildURI());
+        addHeaders(request);
+        return execute(request);
+    }
+
+    private HTTPResponse execute(HttpUriRequest request) throws HTTPRequestException {
+        Admission admission = await(admit(request.getURI()));
+        int status = -1;
         CloseableHttpClient client = null;
+        HTTPCall call = null;
         try {
             client = createClient();
-            URI uri = buildURI();
-            HttpUriRequest request = buildRequest(uri);
+            setInFlight(request);
 
-            for (Map.Entry<String, String> entry : headers.entrySet()) {
-                request.addHeader(entry.getKey(), entry.getValue());
+            call = startCall(request, true);
+            HttpCacheContext context = createContext(call);
+            CloseableHttpResponse httpResponse = client.execute(request, context);
+            status = httpResponse.getStatusLine().getStatusCode();
+            if (call != null) {
+                call.responseStarted(status);
             }
-            
-            HTTPResponse response = new HTTPResponse(client.execute(request), client);
+            bufferSmallBody(httpResponse);
+            if (call != null) {
+                trackBody(call, httpResponse);
+            }
+            HTTPResponse response = new HTTPResponse(httpResponse, client, this);
             client = null;
+            response.setFromCache(recordCacheStatus(context));
             return response;
         } catch (IOException e) {
-            throw new HTTPRequestException(e);
+            HTTPRequestException error = failure(e);
+            if (call != null) {
+                call.failed(error);
+            }
+            throw error;
         } finally {
+            admission.finish(request, status);
             if (client != null) {
                 try {
                     client.close();
@@ -251,72 +687,1069 @@ public class HTTPRequest {
     }
 
     /**
-     * Send the request and throw {@link com.alexforan.please.exceptions.HTTPResponseException} if
-     * response.isOk() evaluates to <code>false</code>.
-     * 
-     * @return An {@link com.alexforan.please.HTTPResponse} object.
-     * @throws HTTPRequestException If any IO-related exceptions occur while making this request.
-     *             The thrown exception will wrap that exception.
-     * @throws HTTPResponseException If the response status is not 20X.
+     * Sends one copy of the request on <code>executor</code>. Cancelling the returned future
+     * aborts it.
      */
-    public HTTPResponse sendAndVerify() throws HTTPRequestException, HTTPResponseException {
-        HTTPResponse response = send();
-        if (!response.isOk()) {
-            throw new HTTPResponseException(String.format(
-                    "Received unexpected status '%d' (%s)",
-                    response.getStatus(), response.getStatusText()));
+    private CompletableFuture<HTTPResponse> sendCopy(Executor executor) {
+        final CompletableFuture<HTTPResponse> future = new CompletableFuture<>();
+        final HttpUriRequest request;
+        try {
+            request = buildRequest(buildURI());
+        } catch (HTTPRequestException e) {
+            future.completeExceptionally(e);
+            return future;
         }
-        return response;
+        addHeaders(request);
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled()) {
+                request.abort();
+            }
+        });
+
+        try {
+            executor.execute(() -> {
+                try {
+                    HTTPResponse response = execute(request);
+                    if (!future.complete(response)) {
+                        response.release();
+                    }
+                } catch (HTTPRequestException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new HTTPRequestException(e));
+        }
+        return future;
     }
 
     /**
-     * Creates the client to be used for the request.
-     * 
-     * A subclass can override this to return a different type of client to be used, or customize
-     * something about the one that would be returned.
+     * Races <code>first</code> against a copy from <code>hedged</code>, started if the first
+     * hasn't answered within the policy's delay.
      */
-    protected CloseableHttpClient createClient() {
-        return verifyCertificates
-                ? HttpClients.createDefault()
-                : NonValidatingClient.create();
+    private CompletableFuture<HTTPResponse> hedge(final HedgePolicy policy,
+            Supplier<CompletableFuture<HTTPResponse>> first, final Supplier<CompletableFuture<HTTPResponse>> hedged) {
+        final Hedge race = new Hedge(policy);
+        long delay = policy.startRequest();
+        if (delay >= 0) {
+            final ScheduledFuture<?> timer = Scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!race.result.isDone() && !aborted && !timedOut && policy.tryHedge()) {
+                        race.start(hedged.get(), true);
+                    }
+                }
+            }, delay);
+            race.result.whenComplete((response, error) -> timer.cancel(false));
+        }
+        race.start(first.get(), false);
+        return race.result;
     }
 
     /**
-     * Builds the URI to be used for the request.
-     * 
-     * This takes into account query string parameters that might already be part of the
-     * user-provided string, and merges those with any configured parameters.
-     * 
-     * @throws HTTPRequestException Wrapping the possible URISyntaxException.
+     * Waits for <code>future</code>, which {@link #abort()} and the deadline cancel.
      */
-    protected URI buildURI() throws HTTPRequestException {
+    private <T> T await(CompletableFuture<T> future) throws HTTPRequestException {
+        if (future.isDone()) {
+            return unwrap(future);
+        }
+        waiting.add(future);
         try {
-            URI baseURI = new URI(url);
-            URIBuilder builder = new URIBuilder(baseURI);
-            builder.addParameters(parameters);
+            if (aborted || timedOut) {
+                future.cancel(false);
+            }
+            return unwrap(future);
+        } finally {
+            waiting.remove(future);
+        }
+    }
 
-            return builder.build();
-        } catch (URISyntaxException e) {
+    private <T> T unwrap(CompletableFuture<T> future) throws HTTPRequestException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
             throw new HTTPRequestException(e);
+        } catch (CancellationException e) {
+            throw failure(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof HTTPRequestException) {
+                throw (HTTPRequestException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new HTTPRequestException(cause);
         }
     }
 
     /**
-     * Provides the proper {@link HttpUriRequest} implementation for this request.
-     * 
-     * A subclass can override this to return a different type of request.
-     * 
-     * @param uri The URI that was built from {@link #buildURI()}.
+     * The hedging policy to follow for this request, or <code>null</code> if it can't be hedged.
      */
-    protected HttpUriRequest buildRequest(URI uri) {
-        HttpRequestBase request;
-        if (entity == null) {
-            request = new ArbitraryMethodRequest(method);
-        } else {
-            request = new ArbitraryMethodRequestWithBody(method, entity);
+    private HedgePolicy getApplicableHedgePolicy() {
+        HedgePolicy policy = hedgePolicy;
+        return policy != null && factory != null && policy.isHedgeable(method)
+                && (entity == null || entity.isRepeatable())
+                ? policy
+                : null;
+    }
+
+    /**
+     * The retry policy to follow for this request, or <code>null</code> if it can't be retried.
+     */
+    private RetryPolicy getApplicableRetryPolicy() {
+        RetryPolicy policy = retryPolicy;
+        return policy != null && policy.isRetryable(method) && (entity == null || entity.isRepeatable())
+                ? policy
+                : null;
+    }
+
+    /**
+     * @return How long to wait before trying again, or -1 to give up with this attempt's outcome.
+     */
+    private long nextDelay(RetryPolicy policy, int attempt, HTTPResponse response, Exception error) {
+        if (policy == null || aborted || timedOut) {
+            return -1;
         }
-        request.setURI(uri);
+        long delay = policy.getDelay(attempt, response, error == null ? null : error.getCause());
+        if (delay >= 0 && deadlineMillis >= 0
+                && System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) >= deadlineAt) {
+            // the next attempt couldn't finish in time anyway
+            return -1;
+        }
+        return delay;
+    }
 
-        return request;
+    /**
+     * Our own retries replace HttpClient's automatic ones, rather than multiplying them.
+     *
+     * @param call The call to tell about any connection opened, or <code>null</code>.
+     */
+    private HttpCacheContext createContext(HTTPCall call) {
+        HttpCacheContext context = HttpCacheContext.create();
+        if (getApplicableRetryPolicy() != null) {
+            context.setAttribute(ConnectionPool.NO_AUTOMATIC_RETRIES, Boolean.TRUE);
+        }
+        if (call != null) {
+            context.setAttribute(ConnectionEvents.ATTRIBUTE, call.connectionEvents());
+        }
+        return context;
+    }
+
+    /**
+     * Starts telling the factory's listeners about sending <code>request</code>.
+     *
+     * @param countSent Whether to count the body as it's written, which the non-blocking client
+     *            would only buffer.
+     * @return The call, or <code>null</code> if there are no listeners.
+     */
+    private HTTPCall startCall(HttpUriRequest request, boolean countSent) {
+        List<HTTPListener> listeners = factory == null ? null : factory.getListeners();
+        if (listeners == null || listeners.isEmpty()) {
+            return null;
+        }
+        HTTPCall call = new HTTPCall(listeners, method, request.getURI());
+        if (countSent && request instanceof HttpEntityEnclosingRequest) {
+            HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+            if (enclosing.getEntity() != null) {
+                enclosing.setEntity(call.countSent(enclosing.getEntity()));
+            }
+        }
+        call.started();
+        return call;
+    }
+
+    /**
+     * Tells <code>call</code> when the body of <code>response</code> has been read - now, if it's
+     * already in memory.
+     */
+    private static void trackBody(HTTPCall call, HttpResponse response) {
+        HttpEntity body = response.getEntity();
+        if (body == null) {
+            call.responseCompleted(0);
+        } else if (body.isStreaming()) {
+            response.setEntity(call.countReceived(body));
+        } else {
+            call.responseCompleted(Math.max(0, body.getContentLength()));
+        }
+    }
+
+    /**
+     * Sends the request through the factory's {@link SingleFlight}, so that identical requests
+     * sent at the same time share one exchange. The body is read into memory once, and each
+     * caller gets its own response over a copy of it.
+     *
+     * Callers waiting on someone else's exchange are still bound by their own deadline and
+     * {@link #abort()}. If the caller running the exchange is aborted or runs out of time, those
+     * still waiting start again rather than failing with it.
+     */
+    private HTTPResponse sendShared() throws HTTPRequestException {
+        HttpUriRequest request = buildRequest(buildURI());
+        addHeaders(request);
+        String key = sharingKey(request);
+        while (true) {
+            SingleFlight<String, SharedExchange>.Flight flight = factory.getCoalescer().join(key);
+            SharedExchange exchange;
+            if (flight.isLeader()) {
+                exchange = lead(flight, request);
+            } else {
+                try {
+                    exchange = await(flight.getResult());
+                } catch (HTTPRequestException e) {
+                    if (flight.isAbandoned() && !aborted && !timedOut) {
+                        continue;
+                    }
+                    throw e;
+                }
+            }
+            HTTPResponse response = new HTTPResponse(exchange.copy(), this);
+            response.setFromCache(exchange.fromCache);
+            return response;
+        }
+    }
+
+    private SharedExchange lead(SingleFlight<String, SharedExchange>.Flight flight, HttpUriRequest request)
+            throws HTTPRequestException {
+        SharedExchange exchange;
+        try {
+            exchange = exchange(request);
+        } catch (HTTPRequestException | RuntimeException | Error e) {
+            if (aborted || timedOut) {
+                // this caller's own doing, which says nothing about how it would go for the others
+                flight.abandon();
+            } else {
+                flight.fail(e);
+            }
+            throw e;
+        }
+        flight.complete(exchange);
+        return exchange;
+    }
+
+    private SharedExchange exchange(HttpUriRequest request) throws HTTPRequestException {
+        Admission admission = await(admit(request.getURI()));
+        int status = -1;
+        HTTPCall call = null;
+        try {
+            setInFlight(request);
+            call = startCall(request, true);
+            HttpCacheContext context = createContext(call);
+            try (CloseableHttpResponse response = createClient().execute(request, context)) {
+                status = response.getStatusLine().getStatusCode();
+                if (call != null) {
+                    call.responseStarted(status);
+                }
+                HttpEntity body = response.getEntity();
+                byte[] content = body == null ? null : EntityUtils.toByteArray(body);
+                if (call != null) {
+                    call.responseCompleted(content == null ? 0 : content.length);
+                }
+                return new SharedExchange(response, content, recordCacheStatus(context));
+            }
+        } catch (IOException e) {
+            HTTPRequestException failure = failure(e);
+            if (call != null) {
+                call.failed(failure);
+            }
+            throw failure;
+        } finally {
+            admission.finish(request, status);
+        }
+    }
+
+    /**
+     * Starts taking the permits a request to <code>uri</code> needs from the factory's circuit
+     * breaker, rate limit and concurrency limit. The breaker is asked first, so that requests to a
+     * failing route fail fast instead of waiting their turn.
+     * 
+     * @return A future that completes once the request may be sent, or fails with the reason it
+     *         may not. Cancelling it gives up any permits.
+     */
+    private CompletableFuture<Admission> admit(final URI uri) {
+        final CompletableFuture<Admission> admitted = new CompletableFuture<>();
+        CircuitBreakerPolicy breakers = factory == null ? null : factory.getCircuitBreakerPolicy();
+        final CircuitBreakerPolicy.Permit permit;
+        try {
+            permit = breakers == null ? null : breakers.acquire(uri);
+        } catch (HTTPCircuitOpenException e) {
+            admitted.completeExceptionally(e);
+            return admitted;
+        }
+
+        RateLimitPolicy rate = factory == null ? null : factory.getRateLimitPolicy(uri);
+        final ConcurrencyLimitPolicy concurrency = factory == null ? null : factory.getConcurrencyLimitPolicy(uri);
+        if (rate == null && concurrency == null) {
+            admitted.complete(new Admission(permit, null));
+            return admitted;
+        }
+
+        CompletableFuture<Void> paced = rate == null
+                ? CompletableFuture.completedFuture(null)
+                : rate.acquire(uri, deadlineMillis >= 0 ? deadlineAt - System.nanoTime() : Long.MAX_VALUE);
+        paced.whenComplete((ignored, error) -> {
+            if (error != null || admitted.isDone() || concurrency == null) {
+                grant(admitted, permit, null, error);
+                return;
+            }
+            final CompletableFuture<AdaptiveLimiter> slot = concurrency.acquire(uri);
+            admitted.whenComplete((admission, cancelled) -> {
+                if (admitted.isCancelled()) {
+                    slot.cancel(false);
+                }
+            });
+            slot.whenComplete((limiter, slotError) -> grant(admitted, permit, limiter, slotError));
+        });
+        return admitted;
+    }
+
+    private void grant(CompletableFuture<Admission> admitted, CircuitBreakerPolicy.Permit permit,
+            AdaptiveLimiter limiter, Throwable error) {
+        Admission admission = new Admission(permit, limiter);
+        if (error != null) {
+            admission.abandon();
+            admitted.completeExceptionally(error);
+        } else if (!admitted.complete(admission)) {
+            // given up on while waiting
+            admission.abandon();
+        }
+    }
+
+    /**
+     * Whether a rate or concurrency limit on <code>uri</code>'s route wants callers of
+     * {@link #sendAsync()} to wait.
+     */
+    private boolean blocksCaller(URI uri) {
+        RateLimitPolicy rate = factory.getRateLimitPolicy(uri);
+        ConcurrencyLimitPolicy concurrency = factory.getConcurrencyLimitPolicy(uri);
+        return (rate != null && rate.getMode() == LimitMode.BLOCK)
+                || (concurrency != null && concurrency.getMode() == LimitMode.BLOCK);
+    }
+
+    /**
+     * Two requests may share an exchange only if everything that reaches the server is the same.
+     */
+    private String sharingKey(HttpUriRequest request) {
+        List<String> headerLines = new ArrayList<>();
+        for (Header header : request.getAllHeaders()) {
+            headerLines.add(header.getName().toLowerCase(Locale.ROOT) + ": " + header.getValue());
+        }
+        Collections.sort(headerLines);
+
+        StringBuilder key = new StringBuilder()
+                .append(request.getMethod()).append(' ')
+                .append(request.getURI()).append(' ')
+                .append(verifyCertificates);
+        for (String line : headerLines) {
+            key.append('\n').append(line);
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return Whether the response came from the factory's cache.
+     */
+    private boolean recordCacheStatus(HttpCacheContext context) {
+        CacheResponseStatus cacheStatus = context.getCacheResponseStatus();
+        HTTPCache cache = factory == null ? null : factory.getCache();
+        if (cache != null) {
+            cache.record(cacheStatus);
+        }
+        return cacheStatus == CacheResponseStatus.CACHE_HIT
+                || cacheStatus == CacheResponseStatus.VALIDATED;
+    }
+
+    /**
+     * Aborts a call to {@link #send()} from another thread, closing its connection. The blocked
+     * <code>send()</code> throws an {@link HTTPRequestException}, as does a <code>send()</code>
+     * started afterwards; if the response has already arrived, reading its body fails instead.
+     * 
+     * Requests sent with {@link #sendAsync()} should be stopped by cancelling the returned future.
+     */
+    public void abort() {
+        aborted = true;
+        abortInFlight();
+    }
+
+    private void setInFlight(HttpUriRequest request) {
+        inFlight.add(request);
+        if (aborted || timedOut) {
+            request.abort();
+        }
+    }
+
+    private void abortInFlight() {
+        for (Future<?> wait : waiting) {
+            wait.cancel(false);
+        }
+        for (HttpUriRequest request : inFlight) {
+            request.abort();
+        }
+    }
+
+    /**
+     * Starts the clock on {@link #setDeadline(long, TimeUnit)}, if there is one. When it runs out,
+     * the request in flight is aborted and <code>future</code> (if any) fails.
+     */
+    private void startDeadline(final CompletableFuture<HTTPResponse> future) {
+        // a clock left running by an earlier send would otherwise abort this one
+        finish();
+        timedOut = false;
+        if (deadlineMillis >= 0) {
+            deadlineAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+            deadline = Scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timedOut = true;
+                    if (future != null) {
+                        future.completeExceptionally(failure(null));
+                    }
+                    abortInFlight();
+                }
+            }, deadlineMillis);
+        }
+    }
+
+    /**
+     * Stops the clock on {@link #setDeadline(long, TimeUnit)} once the response has been read or
+     * abandoned.
+     */
+    void finish() {
+        ScheduledFuture<?> task = deadline;
+        if (task != null) {
+            task.cancel(false);
+            deadline = null;
+        }
+    }
+
+    /**
+     * Whether <code>e</code> means that this request ran out of time.
+     */
+    boolean isTimeout(Exception e) {
+        return timedOut
+                || e instanceof SocketTimeoutException
+                || e instanceof ConnectTimeoutException
+                || e instanceof TimeoutException;
+    }
+
+    /**
+     * Wraps an exception from sending this request or reading its response, as an
+     * {@link HTTPTimeoutException} if it was caused by a timeout.
+     */
+    HTTPRequestException failure(Exception e) {
+        if (timedOut) {
+            return new HTTPTimeoutException("Deadline of " + deadlineMillis + "ms exceeded", e);
+        } else if (isTimeout(e)) {
+            return new HTTPTimeoutException(e);
+        }
+        return new HTTPRequestException(e);
+    }
+
+    /**
+     * Send the request and throw {@link com.alexforan.please.exceptions.HTTPResponseException} if
+     * response.isOk() evaluates to <code>false</code>.
+     * 
+     * @return An {@link com.alexforan.please.HTTPResponse} object.
+     * @throws HTTPRequestException If any IO-related exceptions occur while making this request.
+     *             The thrown exception will wrap that exception.
+     * @throws HTTPResponseException If the response status is not 20X.
+     */
+    public HTTPResponse sendAndVerify() throws HTTPRequestException, HTTPResponseException {
+        return verify(send());
+    }
+
+    /**
+     * Send the request without blocking the calling thread.
+     * 
+     * The request is multiplexed over a small fixed set of I/O threads - or, if the factory's
+     * {@link ExecutorMode} is {@link ExecutorMode#VIRTUAL_THREADS}, sent with {@link #send()} on a
+     * virtual thread - and the response body is read into memory before the returned future
+     * completes. Failures complete the future exceptionally with the same exceptions
+     * {@link #send()} would throw.
+     * 
+     * @return A future that completes with an {@link com.alexforan.please.HTTPResponse} object.
+     */
+    public CompletableFuture<HTTPResponse> sendAsync() {
+        if (factory != null && factory.getExecutorMode() == ExecutorMode.VIRTUAL_THREADS) {
+            return sendOn(factory.getExecutor());
+        }
+
+        final CompletableFuture<HTTPResponse> future = new CompletableFuture<>();
+        startDeadline(future);
+        // the whole body is read into memory by the non-blocking client, so nothing is left to time out
+        future.whenComplete((response, error) -> finish());
+
+        RetryPolicy policy = getApplicableRetryPolicy();
+        if (policy != null) {
+            policy.recordRequest();
+        }
+        attemptAsync(future, policy, 1);
+        return future;
+    }
+
+    /**
+     * Sends the request with {@link #send()} on one of <code>executor</code>'s threads, which
+     * also reads the body into memory.
+     */
+    private CompletableFuture<HTTPResponse> sendOn(Executor executor) {
+        final CompletableFuture<HTTPResponse> future = new CompletableFuture<>();
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled()) {
+                abort();
+            }
+        });
+        try {
+            executor.execute(() -> {
+                try {
+                    HTTPResponse response = send();
+                    response.buffer();
+                    if (!future.complete(response)) {
+                        response.release();
+                    }
+                } catch (HTTPRequestException | HTTPResponseException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new HTTPRequestException(e));
+        }
+        return future;
+    }
+
+    /**
+     * Sends the request once without blocking, and either completes <code>future</code> with the
+     * outcome or schedules another attempt.
+     */
+    private void attemptAsync(final CompletableFuture<HTTPResponse> future, final RetryPolicy policy,
+            final int attempt) {
+        HedgePolicy hedge = getApplicableHedgePolicy();
+        // only the first attempt is sent from the caller's thread
+        final CompletableFuture<HTTPResponse> exchange = hedge == null
+                ? exchangeAsync(attempt == 1)
+                : hedge(hedge, () -> exchangeAsync(attempt == 1), () -> exchangeAsync(false));
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled() || timedOut) {
+                exchange.cancel(false);
+            }
+        });
+        exchange.whenComplete((response, error) -> {
+            long delay = future.isDone()
+                    ? -1
+                    : nextDelay(policy, attempt, response, error instanceof Exception ? (Exception) error : null);
+            if (delay >= 0) {
+                if (response != null) {
+                    response.release();
+                }
+                Scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        attemptAsync(future, policy, attempt + 1);
+                    }
+                }, delay);
+            } else if (error != null) {
+                future.completeExceptionally(error);
+            } else if (!future.complete(response)) {
+                // cancelled, or out of time
+                response.release();
+            }
+        });
+    }
+
+    /**
+     * Sends the request once without blocking, after waiting for its permits - on this thread, if
+     * it's the caller's and a limit is set to {@link LimitMode#BLOCK}.
+     */
+    private CompletableFuture<HTTPResponse> exchangeAsync(boolean callerThread) {
+        final CompletableFuture<HTTPResponse> future = new CompletableFuture<>();
+        final URI uri;
+        try {
+            uri = buildURI();
+        } catch (HTTPRequestException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        final CompletableFuture<Admission> admission = admit(uri);
+        if (callerThread && !admission.isDone() && blocksCaller(uri)) {
+            try {
+                admission.get();
+            } catch (InterruptedException e) {
+                admission.cancel(false);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException e) {
+                // reported through the future
+            }
+        }
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled()) {
+                admission.cancel(false);
+            }
+        });
+        admission.whenComplete((admitted, error) -> {
+            if (error != null) {
+                future.completeExceptionally(error instanceof CancellationException ? failure((Exception) error) : error);
+            } else if (future.isDone()) {
+                admitted.abandon();
+            } else {
+                exchangeAsync(uri, admitted, future);
+            }
+        });
+        return future;
+    }
+
+    private void exchangeAsync(URI uri, final Admission admission, final CompletableFuture<HTTPResponse> future) {
+        final HttpUriRequest request = buildRequest(uri);
+        addHeaders(request);
+        final HTTPCall call = startCall(request, false);
+
+        FutureCallback<HttpResponse> callback = new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                if (call != null) {
+                    call.responseStarted(response.getStatusLine().getStatusCode());
+                    trackBody(call, response);
+                }
+                future.complete(new HTTPResponse(response, HTTPRequest.this));
+            }
+
+            @Override
+            public void failed(Exception e) {
+                HTTPRequestException error = failure(e);
+                if (call != null) {
+                    call.failed(error);
+                }
+                future.completeExceptionally(error);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel(false);
+            }
+        };
+
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled()) {
+                request.abort();
+            }
+            admission.finish(request, response == null ? -1 : response.getStatus());
+        });
+
+        final CloseableHttpAsyncClient client;
+        final Future<HttpResponse> pending;
+        try {
+            Http2Client http2Client = factory == null || entity instanceof FileRegionEntity
+                    ? null
+                    : factory.getHttp2Client(verifyCertificates);
+            client = http2Client == null ? createAsyncClient() : null;
+            if (http2Client != null) {
+                pending = http2Client.execute(request, callback);
+            } else {
+                if (request instanceof HttpEntityEnclosingRequest) {
+                    HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+                    enclosing.setEntity(toAsyncEntity(enclosing.getEntity()));
+                }
+                pending = client.execute(request, callback);
+            }
+        } catch (IOException e) {
+            future.completeExceptionally(failure(e));
+            return;
+        }
+
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled()) {
+                pending.cancel(true);
+            }
+        });
+        if (factory == null) {
+            // this client isn't shared, so it goes away along with the request - on another
+            // thread, since shutting down a reactor from one of its own callbacks would deadlock
+            future.whenCompleteAsync((response, error) -> {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    // the response has already been read, so there's nobody left to tell
+                }
+            });
+        }
+    }
+
+    /**
+     * Send the request without blocking the calling thread, and complete exceptionally with
+     * {@link com.alexforan.please.exceptions.HTTPResponseException} if response.isOk() evaluates
+     * to <code>false</code>.
+     * 
+     * @return A future that completes with an {@link com.alexforan.please.HTTPResponse} object.
+     * @see #sendAsync()
+     */
+    public CompletableFuture<HTTPResponse> sendAndVerifyAsync() {
+        return sendAsync().thenCompose(response -> {
+            CompletableFuture<HTTPResponse> verified = new CompletableFuture<>();
+            try {
+                verified.complete(verify(response));
+            } catch (HTTPResponseException e) {
+                verified.completeExceptionally(e);
+            }
+            return verified;
+        });
+    }
+
+    private HTTPResponse verify(HTTPResponse response) throws HTTPResponseException {
+        if (!response.isOk()) {
+            HTTPResponseException failure = new HTTPResponseException(String.format(
+                    "Received unexpected status '%d' (%s)",
+                    response.getStatus(), response.getStatusText()));
+            // the caller never gets the response, so nobody else would give its connection back
+            response.release();
+            finish();
+            throw failure;
+        }
+        return response;
+    }
+
+    private void addHeaders(HttpUriRequest request) {
+        for (Header header : sharedHeaders) {
+            if (headers == null || !headers.containsKey(header.getName())) {
+                request.addHeader(header);
+            }
+        }
+        if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                request.addHeader(entry.getKey(), entry.getValue());
+            }
+        }
+        if (compression && !request.containsHeader("Accept-Encoding")) {
+            request.addHeader("Accept-Encoding", "gzip, deflate");
+        }
+    }
+
+    /**
+     * The non-blocking client streams bodies through {@link HttpEntity#getContent()}, which
+     * entities outside of HttpCore's own (such as multipart) don't support - those are written
+     * into memory up front instead. Files produce themselves, straight from their channel.
+     */
+    private HttpEntity toAsyncEntity(HttpEntity body) throws IOException {
+        if (body instanceof FileRegionEntity) {
+            return ((FileRegionEntity) body).toAsyncEntity();
+        }
+        if (body == null || body instanceof AbstractHttpEntity) {
+            return body;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        body.writeTo(buffer);
+        ByteArrayEntity buffered = new ByteArrayEntity(buffer.toByteArray());
+        buffered.setContentType(body.getContentType());
+        buffered.setContentEncoding(body.getContentEncoding());
+        return buffered;
+    }
+
+    /**
+     * Reads a short body into memory so that its connection is released immediately. Larger or
+     * unbounded bodies are left streaming, and release their connection once read or closed.
+     */
+    private void bufferSmallBody(CloseableHttpResponse response) throws IOException {
+        HttpEntity body = response.getEntity();
+        if (body != null && body.isStreaming()
+                && body.getContentLength() >= 0 && body.getContentLength() <= BUFFERED_BODY_LIMIT) {
+            response.setEntity(new BufferedHttpEntity(body));
+        }
+    }
+
+    /**
+     * The pool the response is read into, if the factory has one.
+     */
+    BufferPool getBufferPool() {
+        return factory == null ? null : factory.getBufferPool();
+    }
+
+    /**
+     * The Jackson mapper for bodies of this request and its response - the factory's, or a shared
+     * default for requests without one.
+     */
+    ObjectMapper getObjectMapper() {
+        return factory != null
+                ? factory.getObjectMapper()
+                : DEFAULT_MAPPER;
+    }
+
+    /**
+     * Creates the client to be used for the request.
+     * 
+     * By default this is the pooled client of the factory that created this request, which is
+     * shared and ignores <code>close()</code>. Requests created without a factory get their own
+     * client, which is closed along with the response.
+     * 
+     * A subclass can override this to return a different type of client to be used, or customize
+     * something about the one that would be returned.
+     */
+    protected CloseableHttpClient createClient() {
+        if (factory != null) {
+            return entity instanceof FileRegionEntity
+                    ? factory.getHttp1Client(verifyCertificates)
+                    : factory.getClient(verifyCertificates);
+        }
+        return verifyCertificates
+                ? HttpClients.createDefault()
+                : NonValidatingClient.create();
+    }
+
+    /**
+     * Creates the non-blocking client to be used by {@link #sendAsync()}.
+     * 
+     * By default this is the pooled non-blocking client of the factory that created this request,
+     * which is shared and ignores <code>close()</code>. Requests created without a factory get
+     * their own client, which is closed once the response arrives.
+     * 
+     * A subclass can override this to return a different client to be used. The returned client
+     * must already be started.
+     * 
+     * @throws IOException If the client's I/O reactor can't be started.
+     */
+    protected CloseableHttpAsyncClient createAsyncClient() throws IOException {
+        if (factory != null) {
+            return factory.getAsyncClient(verifyCertificates);
+        }
+        CloseableHttpAsyncClient client = verifyCertificates
+                ? HttpAsyncClients.createDefault()
+                : NonValidatingClient.createAsync();
+        client.start();
+        return client;
+    }
+
+    /**
+     * Builds the URI to be used for the request.
+     * 
+     * Configured parameters are appended to any query string that's already part of the
+     * user-provided string, which is left as it was written.
+     * 
+     * @throws HTTPRequestException Wrapping the possible URISyntaxException.
+     */
+    protected URI buildURI() throws HTTPRequestException {
+        if (uri != null && parameters == null) {
+            return uri;
+        }
+        try {
+            if (parameters == null) {
+                return new URI(url);
+            }
+
+            String base = uri != null ? uri.toString() : url;
+            int fragment = base.indexOf('#');
+            int end = fragment < 0 ? base.length() : fragment;
+            StringBuilder builder = new StringBuilder(base.length() + 32 * parameters.size());
+            builder.append(base, 0, end);
+
+            int query = base.lastIndexOf('?', end - 1);
+            PercentEncoder encoder = new PercentEncoder(32 * parameters.size());
+            if (query < 0) {
+                encoder.append('?');
+            } else if (query < end - 1 && base.charAt(end - 1) != '&') {
+                encoder.append('&');
+            }
+            for (int i = 0; i < parameters.size(); i++) {
+                if (i > 0) {
+                    encoder.append('&');
+                }
+                NameValuePair parameter = parameters.get(i);
+                encoder.encode(parameter.getName(), StandardCharsets.UTF_8)
+                        .append('=')
+                        .encode(parameter.getValue(), StandardCharsets.UTF_8);
+            }
+            encoder.appendTo(builder);
+            builder.append(base, end, base.length());
+
+            return new URI(builder.toString());
+        } catch (URISyntaxException e) {
+            throw new HTTPRequestException(e);
+        }
+    }
+
+    /**
+     * Provides the proper {@link HttpUriRequest} implementation for this request.
+     * 
+     * A subclass can override this to return a different type of request.
+     * 
+     * @param uri The URI that was built from {@link #buildURI()}.
+     */
+    protected HttpUriRequest buildRequest(URI uri) {
+        HttpRequestBase request;
+        if (entity == null) {
+            request = new ArbitraryMethodRequest(method);
+        } else {
+            request = new ArbitraryMethodRequestWithBody(method,
+                    compressBody ? new GzipCompressingEntity(entity) : entity);
+        }
+        request.setURI(uri);
+        if (connectTimeoutMillis >= 0 || readTimeoutMillis >= 0 || leaseTimeoutMillis >= 0) {
+            request.setConfig(RequestConfig.copy(RequestConfig.DEFAULT)
+                    .setConnectTimeout(toTimeout(connectTimeoutMillis))
+                    .setSocketTimeout(toTimeout(readTimeoutMillis))
+                    .setConnectionRequestTimeout(toTimeout(leaseTimeoutMillis))
+                    .build());
+        }
+
+        return request;
+    }
+
+    private static int toTimeout(long millis) {
+        return (int) Math.min(millis, Integer.MAX_VALUE);
+    }
+
+    /**
+     * The permits a request was given by the factory's circuit breaker and concurrency limit,
+     * which are told how it went once its response arrives.
+     */
+    private final class Admission {
+        private final CircuitBreakerPolicy.Permit permit;
+
+        private final AdaptiveLimiter limiter;
+
+        private final long started = System.nanoTime();
+
+        Admission(CircuitBreakerPolicy.Permit permit, AdaptiveLimiter limiter) {
+            this.permit = permit;
+            this.limiter = limiter;
+        }
+
+        /**
+         * @param status The response status, or -1 if the request failed.
+         */
+        void finish(HttpUriRequest request, int status) {
+            if (status < 0 && request.isAborted() && !timedOut) {
+                // abandoned by the caller or by a hedge, which says nothing about the route
+                abandon();
+                return;
+            }
+            long nanos = System.nanoTime() - started;
+            if (permit != null) {
+                permit.record(status, nanos);
+            }
+            if (limiter != null) {
+                limiter.release(nanos, status < 0 || status == 429 || status == 503);
+            }
+        }
+
+        /**
+         * Gives the permits back without counting anything.
+         */
+        void abandon() {
+            if (permit != null) {
+                permit.release();
+            }
+            if (limiter != null) {
+                limiter.release(-1, false);
+            }
+        }
+    }
+
+    /**
+     * The copies of a hedged request. The first response completes <code>result</code>, and the
+     * rest are cancelled - or released, if they've already arrived. If every copy fails, the
+     * first failure is reported.
+     */
+    private static final class Hedge {
+        private final HedgePolicy policy;
+
+        private final CompletableFuture<HTTPResponse> result = new CompletableFuture<>();
+
+        private final List<CompletableFuture<HTTPResponse>> copies = new ArrayList<>(2);
+
+        private int running;
+
+        private Throwable firstError;
+
+        // latencies count from the original, so that hedging can't hide how slow the upstream is
+        private final long started = System.nanoTime();
+
+        Hedge(HedgePolicy policy) {
+            this.policy = policy;
+            result.whenComplete((response, error) -> {
+                for (CompletableFuture<HTTPResponse> copy : snapshot()) {
+                    copy.cancel(false);
+                }
+            });
+        }
+
+        void start(CompletableFuture<HTTPResponse> copy, boolean hedged) {
+            synchronized (this) {
+                copies.add(copy);
+                running++;
+            }
+            if (result.isDone()) {
+                // lost before it started
+                copy.cancel(false);
+            }
+            copy.whenComplete((response, error) -> finished(response, error, hedged));
+        }
+
+        private synchronized List<CompletableFuture<HTTPResponse>> snapshot() {
+            return new ArrayList<>(copies);
+        }
+
+        private void finished(HTTPResponse response, Throwable error, boolean hedged) {
+            if (response != null) {
+                if (result.complete(response)) {
+                    policy.recordLatency(System.nanoTime() - started);
+                    if (hedged) {
+                        policy.recordHedgeWin();
+                    }
+                } else {
+                    response.release();
+                }
+                return;
+            }
+
+            boolean allFailed;
+            synchronized (this) {
+                if (firstError == null) {
+                    firstError = error;
+                }
+                allFailed = --running == 0;
+            }
+            if (allFailed) {
+                result.completeExceptionally(firstError);
+            }
+        }
+    }
+
+    /**
+     * A fully-read response that can be handed to any number of callers.
+     */
+    static final class SharedExchange {
+        private final StatusLine statusLine;
+
+        private final Header[] headers;
+
+        private final byte[] body;
+
+        private final Header contentType;
+
+        private final Header contentEncoding;
+
+        private final boolean fromCache;
+
+        SharedExchange(HttpResponse response, byte[] body, boolean fromCache) {
+            this.statusLine = response.getStatusLine();
+            this.headers = response.getAllHeaders();
+            this.body = body;
+            HttpEntity entity = response.getEntity();
+            this.contentType = entity == null ? null : entity.getContentType();
+            this.contentEncoding = entity == null ? null : entity.getContentEncoding();
+            this.fromCache = fromCache;
+        }
+
+        HttpResponse copy() {
+            BasicHttpResponse response = new BasicHttpResponse(statusLine);
+            response.setHeaders(headers);
+            if (body != null) {
+                // the array is never written to, so every copy can read the same one
+                ByteArrayEntity entity = new ByteArrayEntity(body);
+                entity.setContentType(contentType);
+                entity.setContentEncoding(contentEncoding);
+                response.setEntity(entity);
+            }
+            return response;
+        }
     }
 }
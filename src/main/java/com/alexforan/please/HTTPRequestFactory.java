@@ -1,13 +1,41 @@
 package com.alexforan.please;
 
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+
+import com.alexforan.please.util.BufferPool;
+import com.alexforan.please.util.ConnectionPool;
+import com.alexforan.please.util.Http2Client;
+import com.alexforan.please.util.Routes;
+import com.alexforan.please.util.SingleFlight;
+import com.alexforan.please.util.VirtualThreads;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Factory that builds <code>HTTPRequest</code> objects, allowing default headers. Further
  * customization can be achieved by extending this class and overriding
  * {@link #customize(HTTPRequest)}.
  * 
+ * Requests created by a factory share a pool of keep-alive connections, so a factory should be
+ * long-lived and reused rather than created per request. Call {@link #close()} when it's no longer
+ * needed to release those connections.
+ * 
  * @author forana
  */
 public class HTTPRequestFactory {
@@ -15,6 +43,66 @@ public class HTTPRequestFactory {
 
     private Map<String, String> defaultHeaders = new HashMap<>();
 
+    // each factory has its own, so that reconfiguring one factory's mapper can't affect another's
+    private volatile ObjectMapper mapper = new ObjectMapper();
+
+    private volatile boolean compression = true;
+
+    private volatile boolean compressRequestBodies = false;
+
+    private volatile boolean coalesceRequests = false;
+
+    private final SingleFlight<String, HTTPRequest.SharedExchange> coalescer = new SingleFlight<>();
+
+    private volatile long connectTimeoutMillis = -1;
+
+    private volatile long readTimeoutMillis = -1;
+
+    private volatile long leaseTimeoutMillis = -1;
+
+    private volatile long deadlineMillis = -1;
+
+    private volatile RetryPolicy retryPolicy;
+
+    private volatile HedgePolicy hedgePolicy;
+
+    private volatile CircuitBreakerPolicy circuitBreakerPolicy;
+
+    private volatile RateLimitPolicy rateLimitPolicy;
+
+    private final Map<String, RateLimitPolicy> routeRateLimitPolicies = new ConcurrentHashMap<>();
+
+    private volatile ConcurrencyLimitPolicy concurrencyLimitPolicy;
+
+    private final Map<String, ConcurrencyLimitPolicy> routeConcurrencyLimitPolicies = new ConcurrentHashMap<>();
+
+    private final List<HTTPListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile BufferPool bufferPool;
+
+    private int maxConnections = 200;
+
+    private int maxConnectionsPerRoute = 20;
+
+    private long connectionIdleMillis = TimeUnit.SECONDS.toMillis(30);
+
+    private long keepAliveMillis = -1;
+
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
+
+    private volatile HTTPProtocol protocol = HTTPProtocol.HTTP_1_1;
+
+    private volatile HTTPCache cache;
+
+    // read without the lock on every send, and only created under it
+    private volatile ConnectionPool validatingPool;
+
+    private volatile ConnectionPool nonValidatingPool;
+
+    private volatile ExecutorService executor;
+
+    private volatile ExecutorMode executorMode = ExecutorMode.PLATFORM_THREADS;
+
     /**
      * Initializes a factory with no base URL.
      */
@@ -63,6 +151,660 @@ public class HTTPRequestFactory {
         return this;
     }
 
+    /**
+     * Sets the Jackson mapper used to write JSON request bodies and read JSON responses for
+     * requests created by this factory. It should be fully configured before being passed in, as
+     * it will be shared between threads.
+     * 
+     * @param value
+     * @return this
+     */
+    public HTTPRequestFactory setObjectMapper(ObjectMapper value) {
+        mapper = value;
+        return this;
+    }
+
+    /**
+     * Retrieves the Jackson mapper used by requests created by this factory.
+     * 
+     * The mapper may already be in use on other threads, so it shouldn't be reconfigured - pass a
+     * configured one to {@link #setObjectMapper(ObjectMapper)} instead.
+     */
+    public ObjectMapper getObjectMapper() {
+        return mapper;
+    }
+
+    /**
+     * Sets whether requests created by this factory ask for compressed responses and transparently
+     * decompress them. Defaults to true.
+     * 
+     * @param value
+     * @return this
+     * @see HTTPRequest#setCompression(boolean)
+     */
+    public HTTPRequestFactory setCompression(boolean value) {
+        compression = value;
+        return this;
+    }
+
+    boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets a pool for the arrays that responses to requests created by this factory are read
+     * into, or <code>null</code> to allocate a new array for each (the default).
+     * 
+     * Pooling matters most to {@link HTTPResponse#withBody(java.util.function.Function)}, which
+     * then reads bodies without allocating once the pool has warmed up. The pool can be shared
+     * between factories.
+     * 
+     * @param value
+     * @return this
+     */
+    public HTTPRequestFactory setBufferPool(BufferPool value) {
+        bufferPool = value;
+        return this;
+    }
+
+    /**
+     * Retrieves the pool responses are read into, or <code>null</code> if there isn't one.
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Sets whether requests created by this factory gzip their bodies. Defaults to false - only
+     * enable this for servers known to accept <code>Content-Encoding: gzip</code> requests.
+     * 
+     * @param value
+     * @return this
+     * @see HTTPRequest#setCompressBody(boolean)
+     */
+    public HTTPRequestFactory setCompressRequestBodies(boolean value) {
+        compressRequestBodies = value;
+        return this;
+    }
+
+    boolean isCompressRequestBodies() {
+        return compressRequestBodies;
+    }
+
+    /**
+     * Sets whether identical GET and HEAD requests that are in flight at the same time share a
+     * single exchange with the server. Defaults to false.
+     * 
+     * Requests are identical if their method, URL (including parameters) and headers all match.
+     * The shared response body is read fully into memory and each caller gets an independent copy,
+     * so this is best suited to small responses that many threads want at once - such as when an
+     * upstream cache entry expires.
+     * 
+     * @param value
+     * @return this
+     */
+    public HTTPRequestFactory setCoalesceRequests(boolean value) {
+        coalesceRequests = value;
+        return this;
+    }
+
+    boolean isCoalesceRequests() {
+        return coalesceRequests;
+    }
+
+    /**
+     * The requests currently being shared, for {@link #setCoalesceRequests(boolean)}.
+     */
+    SingleFlight<String, HTTPRequest.SharedExchange> getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * Sets how long requests created by this factory wait for a connection to be established. By
+     * default there is no limit other than the operating system's.
+     * 
+     * @param duration
+     * @param unit
+     * @return this
+     * @see HTTPRequest#setConnectTimeout(long, TimeUnit)
+     */
+    public HTTPRequestFactory setConnectTimeout(long duration, TimeUnit unit) {
+        connectTimeoutMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * Sets how long requests created by this factory wait for data from the server, between any
+     * two reads - including while reading the response body. By default there is no limit.
+     * 
+     * @param duration
+     * @param unit
+     * @return this
+     * @see HTTPRequest#setReadTimeout(long, TimeUnit)
+     */
+    public HTTPRequestFactory setReadTimeout(long duration, TimeUnit unit) {
+        readTimeoutMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    long getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * Sets how long requests created by this factory wait for a connection from the pool when
+     * every connection to the host is in use. By default there is no limit.
+     * 
+     * @param duration
+     * @param unit
+     * @return this
+     * @see HTTPRequest#setLeaseTimeout(long, TimeUnit)
+     */
+    public HTTPRequestFactory setLeaseTimeout(long duration, TimeUnit unit) {
+        leaseTimeoutMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    long getLeaseTimeoutMillis() {
+        return leaseTimeoutMillis;
+    }
+
+    /**
+     * Sets the total time requests created by this factory may take, from being sent until their
+     * response body has been read. By default there is no limit.
+     * 
+     * @param duration
+     * @param unit
+     * @return this
+     * @see HTTPRequest#setDeadline(long, TimeUnit)
+     */
+    public HTTPRequestFactory setDeadline(long duration, TimeUnit unit) {
+        deadlineMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * Sets the policy for retrying failed requests created by this factory, or <code>null</code>
+     * for no retries (the default). The policy's retry budget is shared by all of them.
+     * 
+     * @param value
+     * @return this
+     * @see HTTPRequest#setRetryPolicy(RetryPolicy)
+     */
+    public HTTPRequestFactory setRetryPolicy(RetryPolicy value) {
+        retryPolicy = value;
+        return this;
+    }
+
+    /**
+     * Retrieves the retry policy for requests created by this factory, or <code>null</code> if
+     * there isn't one.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the policy for hedging slow requests created by this factory, or <code>null</code> to
+     * never hedge (the default). The policy's latency history and hedge budget are shared by all
+     * of them.
+     * 
+     * @param value
+     * @return this
+     * @see HTTPRequest#setHedgePolicy(HedgePolicy)
+     */
+    public HTTPRequestFactory setHedgePolicy(HedgePolicy value) {
+        hedgePolicy = value;
+        return this;
+    }
+
+    /**
+     * Retrieves the hedging policy for requests created by this factory, or <code>null</code> if
+     * there isn't one.
+     */
+    public HedgePolicy getHedgePolicy() {
+        return hedgePolicy;
+    }
+
+    /**
+     * Sets the circuit breaker for requests created by this factory, or <code>null</code> to never
+     * stop sending (the default). Each route - scheme, host and port - has its own breaker, which
+     * fails requests fast while its route is failing.
+     * 
+     * @param value
+     * @return this
+     */
+    public HTTPRequestFactory setCircuitBreakerPolicy(CircuitBreakerPolicy value) {
+        circuitBreakerPolicy = value;
+        return this;
+    }
+
+    /**
+     * Retrieves the circuit breaker for requests created by this factory, or <code>null</code> if
+     * there isn't one.
+     */
+    public CircuitBreakerPolicy getCircuitBreakerPolicy() {
+        return circuitBreakerPolicy;
+    }
+
+    /**
+     * Sets the rate limit for requests created by this factory, or <code>null</code> for no limit
+     * (the default). Each route - scheme, host and port - is limited to the policy's rate
+     * separately.
+     * 
+     * @param value
+     * @return this
+     */
+    public HTTPRequestFactory setRateLimitPolicy(RateLimitPolicy value) {
+        rateLimitPolicy = value;
+        return this;
+    }
+
+    /**
+     * Sets the rate limit for requests to the route of <code>url</code>, in place of the one set
+     * with {@link #setRateLimitPolicy(RateLimitPolicy)}, or <code>null</code> to go back to it.
+     * 
+     * @param url Any URL on the route, such as <code>https://api.example.com</code>.
+     * @param value
+     * @return this
+     */
+    public HTTPRequestFactory setRateLimitPolicy(String url, RateLimitPolicy value) {
+        setRoutePolicy(routeRateLimitPolicies, url, value);
+        return this;
+    }
+
+    /**
+     * Retrieves the rate limit for requests to routes without their own, or <code>null</code> if
+     * there isn't one.
+     */
+    public RateLimitPolicy getRateLimitPolicy() {
+        return rateLimitPolicy;
+    }
+
+    RateLimitPolicy getRateLimitPolicy(URI uri) {
+        return getRoutePolicy(routeRateLimitPolicies, uri, rateLimitPolicy);
+    }
+
+    /**
+     * Sets the adaptive concurrency limit for requests created by this factory, or
+     * <code>null</code> for no limit (the default). Each route - scheme, host and port - has its
+     * own limit.
+     * 
+     * @param value
+     * @return this
+     */
+    public HTTPRequestFactory setConcurrencyLimitPolicy(ConcurrencyLimitPolicy value) {
+        concurrencyLimitPolicy = value;
+        return this;
+    }
+
+    /**
+     * Sets the concurrency limit for requests to the route of <code>url</code>, in place of the
+     * one set with {@link #setConcurrencyLimitPolicy(ConcurrencyLimitPolicy)}, or <code>null</code>
+     * to go back to it.
+     * 
+     * @param url Any URL on the route, such as <code>https://api.example.com</code>.
+     * @param value
+     * @return this
+     */
+    public HTTPRequestFactory setConcurrencyLimitPolicy(String url, ConcurrencyLimitPolicy value) {
+        setRoutePolicy(routeConcurrencyLimitPolicies, url, value);
+        return this;
+    }
+
+    /**
+     * Retrieves the concurrency limit for requests to routes without their own, or
+     * <code>null</code> if there isn't one.
+     */
+    public ConcurrencyLimitPolicy getConcurrencyLimitPolicy() {
+        return concurrencyLimitPolicy;
+    }
+
+    ConcurrencyLimitPolicy getConcurrencyLimitPolicy(URI uri) {
+        return getRoutePolicy(routeConcurrencyLimitPolicies, uri, concurrencyLimitPolicy);
+    }
+
+    /**
+     * Adds a listener to be told about each step of every request created by this factory, such
+     * as a {@link MetricsRecorder}. With no listeners (the default), nothing is timed or counted.
+     * 
+     * @param value
+     * @return this
+     */
+    public HTTPRequestFactory addListener(HTTPListener value) {
+        listeners.add(value);
+        return this;
+    }
+
+    /**
+     * Removes a listener added with {@link #addListener(HTTPListener)}.
+     * 
+     * @param value
+     * @return this
+     */
+    public HTTPRequestFactory removeListener(HTTPListener value) {
+        listeners.remove(value);
+        return this;
+    }
+
+    List<HTTPListener> getListeners() {
+        return listeners;
+    }
+
+    private static <T> void setRoutePolicy(Map<String, T> policies, String url, T value) {
+        if (value == null) {
+            policies.remove(Routes.of(url));
+        } else {
+            policies.put(Routes.of(url), value);
+        }
+    }
+
+    private static <T> T getRoutePolicy(Map<String, T> policies, URI uri, T fallback) {
+        if (policies.isEmpty()) {
+            return fallback;
+        }
+        T policy = policies.get(Routes.of(uri));
+        return policy == null ? fallback : policy;
+    }
+
+    /**
+     * Sets the HTTP version used by requests created by this factory. Defaults to
+     * {@link HTTPProtocol#HTTP_1_1}.
+     * 
+     * HTTP/2 requests don't go through a {@link #setCache(HTTPCache)} cache, so the two can't be
+     * used together.
+     * 
+     * @param value
+     * @return this
+     * @throws IllegalStateException If <code>value</code> is HTTP/2 and there's a cache.
+     */
+    public synchronized HTTPRequestFactory setProtocol(HTTPProtocol value) {
+        if (value == HTTPProtocol.HTTP_2 && cache != null) {
+            throw new IllegalStateException("HTTP/2 requests can't be cached");
+        }
+        protocol = value;
+        return this;
+    }
+
+    /**
+     * Retrieves the HTTP version used by requests created by this factory.
+     */
+    public HTTPProtocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Sets a cache for responses to requests created by this factory, or <code>null</code> for no
+     * cache (the default).
+     * 
+     * Only affects connection pools that haven't been created yet, so this should be set before
+     * the first request is sent. Can't be combined with {@link HTTPProtocol#HTTP_2}.
+     * 
+     * @param value
+     * @return this
+     * @throws IllegalStateException If the factory uses HTTP/2.
+     */
+    public synchronized HTTPRequestFactory setCache(HTTPCache value) {
+        if (value != null && protocol == HTTPProtocol.HTTP_2) {
+            throw new IllegalStateException("HTTP/2 requests can't be cached");
+        }
+        cache = value;
+        return this;
+    }
+
+    /**
+     * Retrieves the response cache used by this factory, or <code>null</code> if there isn't one.
+     */
+    public HTTPCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the maximum number of pooled connections across all hosts. Defaults to 200.
+     * 
+     * @param value
+     * @return this
+     */
+    public synchronized HTTPRequestFactory setMaxConnections(int value) {
+        maxConnections = value;
+        for (ConnectionPool pool : pools()) {
+            pool.setMaxTotal(value);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of pooled connections to a single host and port. Defaults to 20.
+     * 
+     * @param value
+     * @return this
+     */
+    public synchronized HTTPRequestFactory setMaxConnectionsPerRoute(int value) {
+        maxConnectionsPerRoute = value;
+        for (ConnectionPool pool : pools()) {
+            pool.setMaxPerRoute(value);
+        }
+        return this;
+    }
+
+    /**
+     * Sets how long a pooled connection may sit unused before it's closed. Defaults to 30 seconds.
+     * 
+     * Only affects connection pools that haven't been created yet (pools are created by the first
+     * request sent through this factory).
+     * 
+     * @param duration
+     * @param unit
+     * @return this
+     */
+    public synchronized HTTPRequestFactory setConnectionIdleTimeout(long duration, TimeUnit unit) {
+        connectionIdleMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    /**
+     * Caps how long a connection will be kept alive for reuse, even if the server allows longer.
+     * By default, the server's <code>Keep-Alive</code> header (or lack thereof) is honored.
+     * 
+     * @param duration
+     * @param unit
+     * @return this
+     */
+    public synchronized HTTPRequestFactory setKeepAlive(long duration, TimeUnit unit) {
+        keepAliveMillis = unit.toMillis(duration);
+        for (ConnectionPool pool : pools()) {
+            pool.setKeepAliveMillis(keepAliveMillis);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the number of I/O threads that drive requests sent with
+     * {@link HTTPRequest#sendAsync()}. Defaults to the number of available processors.
+     * 
+     * Only affects connection pools that haven't been created yet.
+     * 
+     * @param value
+     * @return this
+     */
+    public synchronized HTTPRequestFactory setIOThreads(int value) {
+        ioThreads = value;
+        return this;
+    }
+
+    /**
+     * Retrieves the pooled client shared by requests from this factory, creating it if needed.
+     * 
+     * The returned client ignores <code>close()</code>.
+     * 
+     * @param verifyCertificates Whether the client should validate TLS certificates.
+     */
+    protected CloseableHttpClient getClient(boolean verifyCertificates) {
+        ConnectionPool pool = getPool(verifyCertificates);
+        return protocol == HTTPProtocol.HTTP_2
+                ? pool.getHttp2Client()
+                : pool.getClient();
+    }
+
+    /**
+     * Retrieves the pooled non-blocking client shared by requests from this factory, creating and
+     * starting it if needed.
+     * 
+     * The returned client ignores <code>close()</code>.
+     * 
+     * @param verifyCertificates Whether the client should validate TLS certificates.
+     * @throws IOException If the client's I/O reactor can't be started.
+     */
+    protected CloseableHttpAsyncClient getAsyncClient(boolean verifyCertificates) throws IOException {
+        return getPool(verifyCertificates).getAsyncClient();
+    }
+
+    /**
+     * Retrieves the pooled HTTP/1.1 client, whichever protocol this factory has been set to use.
+     * 
+     * @param verifyCertificates Whether the client should validate TLS certificates.
+     */
+    CloseableHttpClient getHttp1Client(boolean verifyCertificates) {
+        return getPool(verifyCertificates).getClient();
+    }
+
+    /**
+     * Retrieves the shared HTTP/2 client if this factory has been set to use
+     * {@link HTTPProtocol#HTTP_2}, or <code>null</code> otherwise.
+     * 
+     * @param verifyCertificates Whether the client should validate TLS certificates.
+     */
+    Http2Client getHttp2Client(boolean verifyCertificates) {
+        return protocol == HTTPProtocol.HTTP_2
+                ? getPool(verifyCertificates).getHttp2Client()
+                : null;
+    }
+
+    private ConnectionPool getPool(boolean verifyCertificates) {
+        ConnectionPool pool = verifyCertificates ? validatingPool : nonValidatingPool;
+        return pool != null ? pool : openPool(verifyCertificates);
+    }
+
+    private synchronized ConnectionPool openPool(boolean verifyCertificates) {
+        if (verifyCertificates) {
+            if (validatingPool == null) {
+                validatingPool = createPool(true);
+            }
+            return validatingPool;
+        } else {
+            if (nonValidatingPool == null) {
+                nonValidatingPool = createPool(false);
+            }
+            return nonValidatingPool;
+        }
+    }
+
+    /**
+     * Sets the threads that blocking sends are run on. Defaults to
+     * {@link ExecutorMode#PLATFORM_THREADS}.
+     * 
+     * Threads already running finish what they were doing.
+     * 
+     * @param value
+     * @return this
+     * @throws UnsupportedOperationException If <code>value</code> is
+     *             {@link ExecutorMode#VIRTUAL_THREADS} and this JVM doesn't have them.
+     */
+    public synchronized HTTPRequestFactory setExecutorMode(ExecutorMode value) {
+        if (value == ExecutorMode.VIRTUAL_THREADS && !VirtualThreads.isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+        }
+        if (value != executorMode && executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        executorMode = value;
+        return this;
+    }
+
+    /**
+     * Retrieves the threads that blocking sends are run on.
+     */
+    public ExecutorMode getExecutorMode() {
+        return executorMode;
+    }
+
+    /**
+     * Retrieves the threads that run blocking sends on behalf of {@link HTTPBatch}, hedges and,
+     * with virtual threads, {@link HTTPRequest#sendAsync()}, creating them if needed.
+     */
+    ExecutorService getExecutor() {
+        ExecutorService started = executor;
+        return started != null ? started : startExecutor();
+    }
+
+    private synchronized ExecutorService startExecutor() {
+        if (executor == null) {
+            if (executorMode == ExecutorMode.VIRTUAL_THREADS) {
+                executor = VirtualThreads.newExecutor("please-virtual-");
+            } else {
+                // idle threads exit after a minute
+                final AtomicInteger count = new AtomicInteger();
+                executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable task) {
+                        Thread thread = new Thread(task, "please-worker-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+        }
+        return executor;
+    }
+
+    private ConnectionPool createPool(boolean verifyCertificates) {
+        ConnectionPool pool = new ConnectionPool(
+                cache == null ? HttpClients.custom() : cache.createClientBuilder(),
+                verifyCertificates,
+                maxConnections,
+                maxConnectionsPerRoute,
+                connectionIdleMillis);
+        pool.setKeepAliveMillis(keepAliveMillis);
+        pool.setIOThreads(ioThreads);
+        return pool;
+    }
+
+    private List<ConnectionPool> pools() {
+        List<ConnectionPool> pools = new ArrayList<>(2);
+        if (validatingPool != null) {
+            pools.add(validatingPool);
+        }
+        if (nonValidatingPool != null) {
+            pools.add(nonValidatingPool);
+        }
+        return pools;
+    }
+
+    /**
+     * Closes all pooled connections and worker threads held by this factory. Requests created
+     * afterwards will open a new pool.
+     */
+    public synchronized void close() {
+        for (ConnectionPool pool : pools()) {
+            pool.close();
+        }
+        validatingPool = null;
+        nonValidatingPool = null;
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
     private HTTPRequest populateHeaders(HTTPRequest request) {
         for (String key : defaultHeaders.keySet()) {
             request.header(key, defaultHeaders.get(key));
@@ -78,10 +820,25 @@ public class HTTPRequestFactory {
      */
     public HTTPRequest request(String method, String url) {
         return customize(populateHeaders(new HTTPRequest(
+                this,
                 method,
                 urlBase == null ? url : urlBase + url)));
     }
 
+    /**
+     * Prepares a request that will be sent many times, such as
+     * <code>template("GET", "/users/{id}")</code>, so that each one costs less to make.
+     * 
+     * The URL is relative to this factory's base URL like any other, and may contain variables
+     * in braces. The factory's default headers are included as they are now.
+     * 
+     * @throws IllegalArgumentException If the URL is malformed.
+     * @see HTTPRequestTemplate
+     */
+    public HTTPRequestTemplate template(String method, String url) {
+        return new HTTPRequestTemplate(this, method, urlBase == null ? url : urlBase + url, defaultHeaders);
+    }
+
     /**
      * Start building a GET request to a URL.
      */
@@ -109,4 +866,14 @@ public class HTTPRequestFactory {
     public HTTPRequest delete(String url) {
         return request("DELETE", url);
     }
+
+    /**
+     * Groups requests to be sent concurrently. The requests needn't have been created by this
+     * factory, but they are sent on its worker threads.
+     * 
+     * @see HTTPBatch
+     */
+    public HTTPBatch batch(Collection<HTTPRequest> requests) {
+        return new HTTPBatch(this, requests);
+    }
 }
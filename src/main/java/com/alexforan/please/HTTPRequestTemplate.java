@@ -0,0 +1,168 @@
+package com.alexforan.please;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+import com.alexforan.please.util.PercentEncoder;
+
+/**
+ * A request to an endpoint that's sent many times, prepared once, for use with
+ * {@link HTTPRequestFactory#template(String, String)}.
+ *
+ * The URL may contain variables in braces, such as <code>/users/{id}/posts</code>, whose values
+ * are given to {@link #request(Object...)} each time. The URL is split around its variables and
+ * checked when the template is created, and the factory's default headers are copied once, so
+ * making a request from a template only has to put the values in - no header map is copied and,
+ * for a URL without variables, nothing is parsed. The request it makes can be changed like any
+ * other before it's sent.
+ *
+ * Templates are immutable and thread-safe. Default headers added to the factory after a template
+ * was created aren't sent by its requests.
+ *
+ * @author forana
+ */
+public final class HTTPRequestTemplate {
+    private final HTTPRequestFactory factory;
+
+    private final String method;
+
+    private final String url;
+
+    // the text between variables, one more than there are variables
+    private final String[] literals;
+
+    private final String[] names;
+
+    private final int literalLength;
+
+    // the URL, when there are no variables to put in it
+    private final URI uri;
+
+    private final Header[] headers;
+
+    HTTPRequestTemplate(HTTPRequestFactory factory, String method, String url, Map<String, String> defaultHeaders) {
+        this.factory = factory;
+        this.method = method;
+        this.url = url;
+
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int start = 0;
+        while (true) {
+            int open = url.indexOf('{', start);
+            if (open < 0) {
+                break;
+            }
+            int close = url.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed variable in " + url);
+            }
+            String name = url.substring(open + 1, close);
+            if (name.isEmpty() || name.indexOf('{') >= 0) {
+                throw new IllegalArgumentException("Invalid variable '" + name + "' in " + url);
+            }
+            literals.add(url.substring(start, open));
+            names.add(name);
+            start = close + 1;
+        }
+        literals.add(url.substring(start));
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.names = names.toArray(new String[names.size()]);
+
+        int length = 0;
+        for (String literal : this.literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+
+        // fails now, rather than on every request, if the URL itself is malformed
+        Object[] placeholders = new Object[this.names.length];
+        Arrays.fill(placeholders, "x");
+        URI parsed = URI.create(expand(placeholders));
+        this.uri = this.names.length == 0 ? parsed : null;
+
+        this.headers = new Header[defaultHeaders.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : defaultHeaders.entrySet()) {
+            headers[i++] = new BasicHeader(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Retrieves the method of requests from this template.
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Retrieves the URL of this template, with its variables still in braces.
+     */
+    public String getURL() {
+        return url;
+    }
+
+    /**
+     * Retrieves the names of the URL's variables, in the order they appear.
+     */
+    public List<String> getVariables() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    /**
+     * Start building a request from this template.
+     *
+     * @param values The values of the URL's variables, in the order they appear. They will be
+     *            toString()'d and percent-encoded, so a value can't add to the path - a
+     *            <code>/</code> in one is sent as <code>%2F</code>.
+     * @throws IllegalArgumentException If the number of values doesn't match the variables, or a
+     *             value is <code>null</code>.
+     */
+    public HTTPRequest request(Object... values) {
+        if (values.length != names.length) {
+            throw new IllegalArgumentException(String.format(
+                    "%s has %d variables, but %d values were given", url, names.length, values.length));
+        }
+        URI target = uri != null ? uri : URI.create(expand(values));
+        return factory.customize(new HTTPRequest(factory, method, target, headers));
+    }
+
+    /**
+     * Start building a request from this template.
+     *
+     * @param values The values of the URL's variables, by name.
+     * @throws IllegalArgumentException If a variable has no value.
+     * @see #request(Object...)
+     */
+    public HTTPRequest request(Map<String, ?> values) {
+        Object[] ordered = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ordered[i] = values.get(names[i]);
+        }
+        return request(ordered);
+    }
+
+    private String expand(Object[] values) {
+        if (names.length == 0) {
+            return literals[0];
+        }
+        StringBuilder builder = new StringBuilder(literalLength + 16 * names.length);
+        PercentEncoder encoder = new PercentEncoder(16);
+        for (int i = 0; i < names.length; i++) {
+            builder.append(literals[i]);
+            if (values[i] == null) {
+                throw new IllegalArgumentException("No value for {" + names[i] + "} in " + url);
+            }
+            encoder.reset();
+            encoder.encodePathSegment(values[i].toString()).appendTo(builder);
+        }
+        return builder.append(literals[names.length]).toString();
+    }
+}
@@ -1,19 +1,43 @@
 package com.alexforan.please;
 
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.Function;
 
 import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.ParseException;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
 
 import com.alexforan.please.exceptions.HTTPResponseException;
+import com.alexforan.please.util.BufferPool;
+import com.alexforan.please.util.InflatingInputStream;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -23,33 +47,131 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  * @author forana
  */
 public class HTTPResponse {
-    private final CloseableHttpResponse response;
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private static final int SAVE_BUFFER_SIZE = 64 * 1024;
+
+    // some VMs reserve header words in an array
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final HttpResponse response;
     private final CloseableHttpClient client;
+    private final HTTPRequest request;
+    private boolean fromCache;
 
     /**
      * Should not be called directly.
      * 
      * @param response The response that this wraps.
+     * @param client The client that made the request, closed along with this response.
      */
     protected HTTPResponse(CloseableHttpResponse response, CloseableHttpClient client) {
+        this(response, client, null);
+    }
+
+    /**
+     * Should not be called directly.
+     * 
+     * @param response The response that this wraps.
+     * @param client The client that made the request, closed along with this response.
+     * @param request The request this is a response to, whose configuration (such as the JSON
+     *            mapper) applies to reading the body.
+     */
+    protected HTTPResponse(CloseableHttpResponse response, CloseableHttpClient client, HTTPRequest request) {
         this.response = response;
         this.client = client;
+        this.request = request;
+    }
+
+    /**
+     * Should not be called directly.
+     * 
+     * @param response The response that this wraps, whose body (if any) is already in memory.
+     * @param request The request this is a response to.
+     */
+    protected HTTPResponse(HttpResponse response, HTTPRequest request) {
+        this.response = response;
+        this.client = null;
+        this.request = request;
     }
 
     /**
      * Closes the response. Should be called if there is a body whose contents are being streamed.
      * 
+     * Any unread remainder of the body is drained so that the connection can be handed back to
+     * the pool for reuse.
+     * 
      * @throws IOException
      */
     public void close() throws IOException {
-        response.close();
-        client.close();
+        try {
+            EntityUtils.consume(response.getEntity());
+        } finally {
+            if (request != null) {
+                request.finish();
+            }
+            if (response instanceof Closeable) {
+                ((Closeable) response).close();
+            }
+            if (client != null) {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Discards a response that won't be handed to the caller, such as one that's about to be
+     * retried, without ending its request.
+     */
+    void release() {
+        try {
+            if (response instanceof Closeable) {
+                // closing without reading the body first gives up the connection rather than
+                // draining it, which is cheaper for anything more than a short error page
+                ((Closeable) response).close();
+            } else {
+                EntityUtils.consume(response.getEntity());
+            }
+            if (client != null) {
+                client.close();
+            }
+        } catch (IOException e) {
+            // the response is being thrown away, so there's nobody to tell
+        }
+    }
+
+    /**
+     * Reads the rest of the body into memory, handing the connection back, for a response that
+     * will be read on another thread.
+     */
+    void buffer() throws HTTPResponseException {
+        if (!isStreaming()) {
+            return;
+        }
+        try {
+            response.setEntity(new BufferedHttpEntity(response.getEntity()));
+        } catch (IOException e) {
+            release();
+            throw readFailure(e);
+        } finally {
+            if (request != null) {
+                request.finish();
+            }
+        }
+    }
+
+    /**
+     * Whether the body is still to be read from the connection.
+     */
+    boolean isStreaming() {
+        return response.getEntity() != null && response.getEntity().isStreaming();
     }
 
     @Override
     protected final void finalize() throws Throwable {
         try {
-            close();
+            // never drain an abandoned body on the finalizer thread
+            release();
         } finally {
             super.finalize();
         }
@@ -69,6 +191,18 @@ public class HTTPResponse {
         return response.getStatusLine().getReasonPhrase();
     }
 
+    /**
+     * Checks if this response was served from the factory's {@link HTTPCache}, either
+     * directly or after the server confirmed the cached copy was still valid.
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    void setFromCache(boolean value) {
+        fromCache = value;
+    }
+
     /**
      * Convenience helper that checks if the response is within the 200 (acceptable) range.
      */
@@ -91,67 +225,411 @@ public class HTTPResponse {
         return response.getEntity() != null;
     }
 
+    /**
+     * Retrieves the content coding the server applied to the body (e.g. "gzip"), or null if it
+     * wasn't encoded.
+     */
+    public String getContentEncoding() {
+        Header header = response.getEntity() == null ? null : response.getEntity().getContentEncoding();
+        return header == null ? null : header.getValue();
+    }
+
+    /**
+     * Convenience helper that checks if the server compressed the body. Unless compression was
+     * disabled on the request, such bodies are decompressed transparently when read.
+     */
+    public boolean isCompressed() {
+        return InflatingInputStream.isSupported(getContentEncoding());
+    }
+
+    private boolean isDecompressing() {
+        return (request == null || request.isCompression()) && isCompressed();
+    }
+
     /**
      * Retrieve the body as an @{link java.io.InputStream}. The user is then responsible for closing
      * the stream when finished.
      * 
+     * Compressed bodies are decompressed as they're read, unless compression was disabled on the
+     * request.
+     * 
      * @throws HTTPResponseException If there's a general I/O error.
      */
     public InputStream getBody() throws HTTPResponseException {
         try {
-            return response.getEntity().getContent();
+            InputStream stream = response.getEntity().getContent();
+            if (isDecompressing()) {
+                stream = InflatingInputStream.wrap(stream, getContentEncoding());
+            }
+            return request == null ? stream : new FinishingInputStream(request, stream);
         } catch (IOException e) {
-            throw new HTTPResponseException(e);
+            throw readFailure(e);
+        }
+    }
+
+    /**
+     * The body as read by the caller. Once it's been read to the end or closed, the response is
+     * done with as far as the request's deadline is concerned.
+     */
+    private static class FinishingInputStream extends FilterInputStream {
+        private final HTTPRequest request;
+
+        FinishingInputStream(HTTPRequest request, InputStream in) {
+            super(in);
+            this.request = request;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                request.finish();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read < 0) {
+                request.finish();
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                request.finish();
+            }
         }
     }
 
     /**
      * Retrieve the body as an <code>byte[]</code>. The stream will be closed automatically.
      * 
-     * This method will not be spectacularly performant - if you're willing to add a third-party
-     * dependency, look at commons-io's <code>IOUtils.toByteArray(InputStream)</code>.
-     * 
      * @throws HTTPResponseException If there's a general I/O error.
      */
     public byte[] getBytes() throws HTTPResponseException {
+        return getBytes(MAX_ARRAY_SIZE);
+    }
+
+    /**
+     * Retrieve the body as an <code>byte[]</code>, refusing to read more than <code>maxBytes</code>.
+     * The stream will be closed automatically.
+     * 
+     * The buffer is sized from the Content-Length header if the server sent one, and grows
+     * geometrically otherwise - in arrays from the factory's {@link BufferPool}, if it has one, so
+     * that only the array returned is new.
+     * 
+     * @param maxBytes The largest body that will be accepted.
+     * @throws HTTPResponseException If the body is larger than <code>maxBytes</code>, or if there's
+     *             a general I/O error.
+     */
+    public byte[] getBytes(int maxBytes) throws HTTPResponseException {
+        // a body of known length is read straight into an array of its own size
+        BufferPool pool = getDeclaredLength() >= 0 ? null : getBufferPool();
+        ByteBuffer body = read(maxBytes, pool);
+        byte[] buffer = body.array();
+        if (body.remaining() == buffer.length) {
+            return buffer;
+        }
+        byte[] bytes = Arrays.copyOf(buffer, body.remaining());
+        release(pool, buffer);
+        return bytes;
+    }
+
+    /**
+     * Reads the body into a buffer and hands it to <code>reader</code>, for parsers that are done
+     * with the bytes once they've returned. The stream will be closed automatically.
+     * 
+     * With a {@link BufferPool} set on the factory, the buffer is borrowed from the pool and given
+     * back afterward, so reading a body allocates nothing once the pool has warmed up. The buffer
+     * is only valid until <code>reader</code> returns - it mustn't be kept, and nor must anything
+     * that shares its array.
+     * 
+     * @param reader Given the body, as a heap buffer whose array starts at the first byte.
+     * @return What <code>reader</code> returned.
+     * @throws HTTPResponseException If there's a general I/O error.
+     * @see HTTPRequestFactory#setBufferPool(BufferPool)
+     */
+    public <T> T withBody(Function<ByteBuffer, T> reader) throws HTTPResponseException {
+        BufferPool pool = getBufferPool();
+        ByteBuffer body = read(MAX_ARRAY_SIZE, pool);
         try {
-            InputStream stream = getBody();
-            List<byte[]> byteArrays = new LinkedList<>();
-            final int CHUNK_SIZE = 1024;
-            int lastRead = -1;
-            int totalSize = 0;
-            do {
-                byte[] buffer = new byte[CHUNK_SIZE];
-                lastRead = stream.read(buffer);
-                if (lastRead != -1) {
-                    totalSize += lastRead;
-                    byteArrays.add(Arrays.copyOf(buffer, lastRead));
+            return reader.apply(body);
+        } finally {
+            release(pool, body.array());
+        }
+    }
+
+    /**
+     * Reads the body into an array that may be larger than it, from <code>pool</code> if there is
+     * one.
+     */
+    private ByteBuffer read(int maxBytes, BufferPool pool) throws HTTPResponseException {
+        int limit = Math.min(maxBytes, MAX_ARRAY_SIZE);
+        byte[] buffer = null;
+        try (InputStream stream = getBody()) {
+            long declaredLength = getDeclaredLength();
+            if (declaredLength > limit) {
+                throw tooLarge(limit);
+            }
+
+            buffer = acquire(pool, declaredLength >= 0
+                    ? (int) declaredLength
+                    : Math.min(INITIAL_BUFFER_SIZE, limit));
+            int size = 0;
+            while (true) {
+                // a pooled array can be larger than the limit
+                int end = Math.min(buffer.length, limit);
+                if (size == end) {
+                    // full - only grow if there's actually more to come
+                    int next = stream.read();
+                    if (next == -1) {
+                        break;
+                    }
+                    if (size == limit) {
+                        throw tooLarge(limit);
+                    }
+                    byte[] larger = acquire(pool, (int) Math.min(Math.max(2L * size, INITIAL_BUFFER_SIZE), limit));
+                    System.arraycopy(buffer, 0, larger, 0, size);
+                    release(pool, buffer);
+                    buffer = larger;
+                    buffer[size++] = (byte) next;
+                    end = Math.min(buffer.length, limit);
                 }
-            } while (lastRead > 0);
-            stream.close();
+                int read = stream.read(buffer, size, end - size);
+                if (read == -1) {
+                    break;
+                }
+                size += read;
+            }
+            return ByteBuffer.wrap(buffer, 0, size);
+        } catch (IOException e) {
+            release(pool, buffer);
+            throw readFailure(e);
+        } catch (HTTPResponseException e) {
+            release(pool, buffer);
+            throw e;
+        }
+    }
+
+    private static byte[] acquire(BufferPool pool, int size) {
+        return pool == null ? new byte[size] : pool.acquire(size);
+    }
+
+    private static void release(BufferPool pool, byte[] buffer) {
+        if (pool != null && buffer != null) {
+            pool.release(buffer);
+        }
+    }
 
-            byte[] result = new byte[totalSize];
-            int i = 0;
-            for (byte[] array : byteArrays) {
-                for (byte b : array) {
-                    result[i] = b;
-                    i++;
+    /**
+     * The length of the body as it will be read, or -1 if that isn't known in advance.
+     */
+    private long getDeclaredLength() {
+        // the declared length of a compressed body says nothing about its decompressed size
+        return isDecompressing() || response.getEntity() == null ? -1 : response.getEntity().getContentLength();
+    }
+
+    private BufferPool getBufferPool() {
+        return request == null ? null : request.getBufferPool();
+    }
+
+    /**
+     * Wraps an exception from reading the body, keeping track of whether it was a timeout.
+     */
+    private HTTPResponseException readFailure(IOException e) {
+        return request != null && request.isTimeout(e)
+                ? new HTTPResponseException(request.failure(e))
+                : new HTTPResponseException(e);
+    }
+
+    private HTTPResponseException tooLarge(int limit) {
+        return new HTTPResponseException(String.format(
+                "Response body exceeds the limit of %d bytes", limit));
+    }
+
+    /**
+     * Writes the body to a file, replacing anything already in it. The stream will be closed
+     * automatically.
+     * 
+     * The body goes from the connection to the file through one direct buffer, so however large
+     * it is, it's never held in memory.
+     * 
+     * @return The number of bytes written.
+     * @throws HTTPResponseException If there's an error reading the body or writing the file.
+     */
+    public long saveTo(Path path) throws HTTPResponseException {
+        return saveTo(path, 0, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Writes the body into a file starting at <code>position</code>, leaving the rest of the file
+     * as it was - for resuming a download, or putting together one fetched in pieces with
+     * {@link HTTPRequest#range(long, long)}. The file is created if it doesn't exist, and grows if
+     * it's too short. The stream will be closed automatically.
+     * 
+     * @return The number of bytes written.
+     * @throws HTTPResponseException If there's an error reading the body or writing the file.
+     * @see #saveTo(Path)
+     */
+    public long saveTo(Path path, long position) throws HTTPResponseException {
+        if (position < 0) {
+            throw new IllegalArgumentException("Position can't be negative");
+        }
+        return saveTo(path, position, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private long saveTo(Path path, long position, OpenOption... options) throws HTTPResponseException {
+        try (InputStream stream = getBody(); FileChannel file = FileChannel.open(path, options)) {
+            ReadableByteChannel source = Channels.newChannel(stream);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(SAVE_BUFFER_SIZE);
+            long written = 0;
+            while (source.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    written += file.write(buffer, position + written);
                 }
+                buffer.clear();
             }
-            return result;
+            return written;
         } catch (IOException e) {
-            throw new HTTPResponseException(e);
+            throw readFailure(e);
         }
     }
 
     /**
      * Convenience method to return the body as a string.
      * 
-     * @throws HTTPResponseException
+     * The body is decoded in the charset named by its Content-Type, or else the encoding of the
+     * request, as it's read - into a buffer sized from the Content-Length header if there is one,
+     * so the bytes are never held in full. Malformed input is replaced rather than rejected.
+     * 
+     * @throws HTTPResponseException If there's a general I/O error.
      */
     public String getBodyText() throws HTTPResponseException {
-        byte[] bytes = getBytes();
-        return new String(bytes);
+        CharsetDecoder decoder = newDecoder();
+        long declaredLength = getDeclaredLength();
+        BufferPool pool = getBufferPool();
+        byte[] array = acquire(pool, INITIAL_BUFFER_SIZE);
+        try (InputStream stream = getBody()) {
+            CharBuffer text = CharBuffer.allocate(declaredLength >= 0
+                    ? (int) Math.min((long) Math.ceil(declaredLength * decoder.averageCharsPerByte()), MAX_ARRAY_SIZE)
+                    : INITIAL_BUFFER_SIZE);
+            ByteBuffer bytes = ByteBuffer.wrap(array);
+            int read;
+            while ((read = stream.read(array, bytes.position(), array.length - bytes.position())) >= 0) {
+                bytes.position(bytes.position() + read);
+                bytes.flip();
+                text = decode(decoder, bytes, text, false);
+                // keeps the start of a character split between reads
+                bytes.compact();
+            }
+            bytes.flip();
+            text = decode(decoder, bytes, text, true);
+            while (decoder.flush(text).isOverflow()) {
+                text = grow(text);
+            }
+            text.flip();
+            return text.toString();
+        } catch (IOException e) {
+            throw readFailure(e);
+        } finally {
+            release(pool, array);
+        }
+    }
+
+    /**
+     * Retrieve the body as a {@link Reader}, decoding it as it's read in the charset chosen as by
+     * {@link #getBodyText()}. The user is then responsible for closing the reader when finished.
+     * 
+     * @throws HTTPResponseException If there's a general I/O error.
+     */
+    public Reader getBodyReader() throws HTTPResponseException {
+        return new InputStreamReader(new ReaderInputStream(this, getBody()), newDecoder());
+    }
+
+    /**
+     * The body under a reader. It keeps the response reachable for as long as the reader is,
+     * since the response's finalizer would close the body, and keeps returning the end of the
+     * body once it's been reached - a decoder can read again after the end, by which time the
+     * connection's stream has been handed back and would throw.
+     */
+    private static class ReaderInputStream extends FilterInputStream {
+        @SuppressWarnings("unused")
+        private final HTTPResponse response;
+
+        private boolean ended;
+
+        ReaderInputStream(HTTPResponse response, InputStream in) {
+            super(in);
+            this.response = response;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (ended) {
+                return -1;
+            }
+            int b = super.read();
+            ended = b < 0;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (ended) {
+                return -1;
+            }
+            int read = super.read(b, off, len);
+            ended = read < 0;
+            return read;
+        }
+    }
+
+    /**
+     * The charset of the body - the one in its Content-Type if that's given and supported, or
+     * else the request's encoding.
+     */
+    public Charset getCharset() {
+        try {
+            ContentType type = response.getEntity() == null ? null : ContentType.get(response.getEntity());
+            if (type != null && type.getCharset() != null) {
+                return type.getCharset();
+            }
+        } catch (ParseException | IllegalArgumentException e) {
+            // fall back as if there were no charset
+        }
+        try {
+            return request == null ? StandardCharsets.UTF_8 : Charset.forName(request.getEncoding());
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    private CharsetDecoder newDecoder() {
+        return getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static CharBuffer decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer text, boolean end) {
+        // with errors replaced, the only other result is running out of input
+        while (decoder.decode(bytes, text, end).isOverflow()) {
+            text = grow(text);
+        }
+        return text;
+    }
+
+    private static CharBuffer grow(CharBuffer text) {
+        CharBuffer larger = CharBuffer.allocate((int) Math.min(Math.max(2L * text.capacity(), INITIAL_BUFFER_SIZE),
+                MAX_ARRAY_SIZE));
+        text.flip();
+        return larger.put(text);
     }
 
     /**
@@ -160,16 +638,109 @@ public class HTTPResponse {
      * @throws HTTPResponseException If there's an error reading or parsing the body.
      */
     public JsonNode getJSON() throws HTTPResponseException {
-        try {
-            InputStream stream = getBody();
-            ObjectMapper mapper = new ObjectMapper();
+        try (InputStream stream = getBody()) {
+            ObjectMapper mapper = getObjectMapper();
             return mapper.readTree(mapper.getFactory()
                     .createParser(stream));
         } catch (IOException e) {
+            throw readFailure(e);
+        }
+    }
+
+    /**
+     * Retrieve the JSON body bound to an instance of <code>type</code>.
+     * 
+     * The body is deserialized straight from the stream, without building an intermediate tree.
+     * 
+     * @throws HTTPResponseException If there's an error reading or binding the body.
+     */
+    public <T> T getJSON(Class<T> type) throws HTTPResponseException {
+        try (InputStream stream = getBody()) {
+            return getObjectMapper().readValue(stream, type);
+        } catch (IOException e) {
+            throw readFailure(e);
+        }
+    }
+
+    /**
+     * Retrieve the JSON body bound to a generic type, such as
+     * <code>new TypeReference&lt;List&lt;Thing&gt;&gt;() {}</code>.
+     * 
+     * The body is deserialized straight from the stream, without building an intermediate tree.
+     * 
+     * @throws HTTPResponseException If there's an error reading or binding the body.
+     */
+    public <T> T getJSON(TypeReference<T> type) throws HTTPResponseException {
+        try (InputStream stream = getBody()) {
+            return getObjectMapper().readValue(stream, type);
+        } catch (IOException e) {
+            throw readFailure(e);
+        }
+    }
+
+    /**
+     * Read the JSON body incrementally as a sequence of trees.
+     * 
+     * A top-level array yields its elements; anything else (such as newline-delimited JSON) yields
+     * each top-level value. Only one element is held in memory at a time.
+     * 
+     * @throws HTTPResponseException If the body can't be opened.
+     * @see com.alexforan.please.JSONIterator
+     */
+    public JSONIterator<JsonNode> streamJSON() throws HTTPResponseException {
+        return streamJSON(JsonNode.class);
+    }
+
+    /**
+     * Read the JSON body incrementally, binding each element to an instance of <code>type</code>.
+     * 
+     * @throws HTTPResponseException If the body can't be opened.
+     * @see #streamJSON()
+     */
+    public <T> JSONIterator<T> streamJSON(Class<T> type) throws HTTPResponseException {
+        return streamJSON(getObjectMapper().getTypeFactory().constructType(type));
+    }
+
+    /**
+     * Read the JSON body incrementally, binding each element to a generic type.
+     * 
+     * @throws HTTPResponseException If the body can't be opened.
+     * @see #streamJSON()
+     */
+    public <T> JSONIterator<T> streamJSON(TypeReference<T> type) throws HTTPResponseException {
+        return streamJSON(getObjectMapper().getTypeFactory().constructType(type));
+    }
+
+    private <T> JSONIterator<T> streamJSON(JavaType type) throws HTTPResponseException {
+        InputStream stream = getBody();
+        try {
+            return new JSONIterator<>(this, getObjectMapper(), stream, type);
+        } catch (IOException e) {
+            closeUnclaimed(stream, e);
             throw new HTTPResponseException(e);
+        } catch (RuntimeException e) {
+            closeUnclaimed(stream, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Closes a stream that failed before anything took charge of it, so would never be closed.
+     */
+    private static void closeUnclaimed(InputStream stream, Exception failure) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            failure.addSuppressed(e);
         }
     }
 
+    private ObjectMapper getObjectMapper() {
+        return request != null
+                ? request.getObjectMapper()
+                : HTTPRequest.DEFAULT_MAPPER;
+    }
+
     /**
      * Retrieve the value of a header in the response if it's set, or <code>null</code> if it's not.
      * 
@@ -0,0 +1,199 @@
+package com.alexforan.please;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.alexforan.please.util.TokenBudget;
+
+/**
+ * Decides when a slow request gets a second copy sent alongside it, for use with
+ * {@link HTTPRequestFactory#setHedgePolicy(HedgePolicy)}. Supports builder-style population and
+ * chaining.
+ *
+ * If a request hasn't received a response within the hedge delay, an identical request is sent,
+ * and whichever responds first is returned while the other is aborted. The delay is either fixed
+ * or a percentile of the latencies recently seen under this policy - hedging at the 95th
+ * percentile means only the slowest 5% of requests are ever duplicated. Until enough latencies have
+ * been seen, nothing is hedged.
+ *
+ * Hedges are also limited by a budget, which by default allows one for every 20 requests on top of
+ * a burst of 5. Only safe methods (GET, HEAD and OPTIONS) are hedged.
+ *
+ * @author forana
+ */
+public class HedgePolicy {
+    private static final int WINDOW = 1024;
+
+    private static final int MIN_SAMPLES = 32;
+
+    // recomputing the percentile on every request would mean sorting the window every time
+    private static final int RECOMPUTE_EVERY = 64;
+
+    private long fixedDelayMillis = -1;
+
+    private double percentile = 0.95;
+
+    private long minDelayMillis = 0;
+
+    private Set<String> methods = new HashSet<>(Arrays.asList("GET", "HEAD", "OPTIONS"));
+
+    private TokenBudget budget = new TokenBudget(0.05, 5);
+
+    private final AtomicLongArray latencies = new AtomicLongArray(WINDOW);
+
+    // a long, so that a busy policy never wraps around to a negative count
+    private final AtomicLong recorded = new AtomicLong();
+
+    private volatile long computedAt = -RECOMPUTE_EVERY;
+
+    private volatile long computedDelayMillis = -1;
+
+    private final LongAdder hedges = new LongAdder();
+
+    private final LongAdder hedgeWins = new LongAdder();
+
+    public HedgePolicy() {
+    }
+
+    /**
+     * Hedges every request still waiting after a fixed delay, instead of a percentile.
+     *
+     * @return this
+     */
+    public HedgePolicy setDelay(long duration, TimeUnit unit) {
+        fixedDelayMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    /**
+     * Hedges requests that are slower than this fraction of recent requests - 0.95 hedges the
+     * slowest 5%. This is the default, at 0.95.
+     *
+     * @return this
+     */
+    public HedgePolicy setPercentile(double value) {
+        if (value <= 0 || value >= 1) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 1");
+        }
+        percentile = value;
+        fixedDelayMillis = -1;
+        return this;
+    }
+
+    /**
+     * Sets the shortest delay a percentile can produce, so that very fast upstreams aren't hedged
+     * on noise. Defaults to 0.
+     *
+     * @return this
+     */
+    public HedgePolicy setMinDelay(long duration, TimeUnit unit) {
+        minDelayMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    /**
+     * Sets the methods that may be hedged. Defaults to GET, HEAD and OPTIONS.
+     *
+     * @return this
+     */
+    public HedgePolicy setHedgeMethods(String... values) {
+        methods = new HashSet<>();
+        for (String value : values) {
+            methods.add(value.toUpperCase(Locale.ROOT));
+        }
+        return this;
+    }
+
+    /**
+     * Sets the hedge budget.
+     *
+     * @param ratio The number of hedges earned by each request sent - 0.05 allows one request in
+     *            20 to be hedged.
+     * @param maxTokens The most hedges that can be saved up.
+     * @return this
+     */
+    public HedgePolicy setBudget(double ratio, int maxTokens) {
+        budget = new TokenBudget(ratio, maxTokens);
+        return this;
+    }
+
+    /**
+     * Retrieves the number of hedged copies sent under this policy.
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * Retrieves the number of times a hedged copy answered before the original.
+     */
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    boolean isHedgeable(String method) {
+        return methods.contains(method.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Credits the budget for a request about to be sent, and decides when it should be hedged.
+     *
+     * @return The delay in milliseconds, or -1 if it shouldn't be.
+     */
+    long startRequest() {
+        budget.deposit();
+        if (fixedDelayMillis >= 0) {
+            return fixedDelayMillis;
+        }
+
+        long count = recorded.get();
+        if (count < MIN_SAMPLES) {
+            return -1;
+        }
+        if (count - computedAt >= RECOMPUTE_EVERY) {
+            computedAt = count;
+            computedDelayMillis = Math.max(minDelayMillis, computePercentile((int) Math.min(count, WINDOW)));
+        }
+        return computedDelayMillis;
+    }
+
+    /**
+     * Withdraws from the budget for a hedged copy.
+     *
+     * @return Whether it may be sent.
+     */
+    boolean tryHedge() {
+        if (budget.tryWithdraw()) {
+            hedges.increment();
+            return true;
+        }
+        return false;
+    }
+
+    void recordHedgeWin() {
+        hedgeWins.increment();
+    }
+
+    /**
+     * Records how long a request took to receive its response.
+     */
+    void recordLatency(long nanos) {
+        long index = recorded.getAndIncrement();
+        latencies.set((int) (index % WINDOW), TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    private long computePercentile(int samples) {
+        long[] sorted = new long[samples];
+        for (int i = 0; i < samples; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted[Math.min(samples - 1, (int) (percentile * samples))];
+    }
+}
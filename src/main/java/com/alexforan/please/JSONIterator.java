@@ -0,0 +1,118 @@
+package com.alexforan.please;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads a JSON body one element at a time, so that only a single element is ever held in memory.
+ *
+ * If the body is a top-level JSON array, its elements are returned in order. Otherwise the body is
+ * treated as a sequence of whitespace-separated values, which covers newline-delimited JSON
+ * (NDJSON/JSON lines) as well as a single lone value.
+ *
+ * The body is closed once the last element has been read. If iteration is abandoned early,
+ * {@link #close()} should be called. Parsing errors are thrown from {@link #next()} as
+ * {@link java.io.UncheckedIOException}.
+ *
+ * @author forana
+ */
+public class JSONIterator<T> implements Iterator<T>, Closeable {
+    // held so that the response isn't finalized (closing the body) while iteration is underway
+    private final HTTPResponse response;
+
+    private final ObjectMapper mapper;
+
+    private final JsonParser parser;
+
+    private final JavaType type;
+
+    private final boolean array;
+
+    private JsonToken current;
+
+    /**
+     * Should not be called directly - see {@link HTTPResponse#streamJSON()}.
+     *
+     * @throws IOException If the start of the body can't be read.
+     */
+    JSONIterator(HTTPResponse response, ObjectMapper mapper, InputStream stream, JavaType type) throws IOException {
+        this.response = response;
+        this.mapper = mapper;
+        this.type = type;
+        parser = mapper.getFactory().createParser(stream);
+
+        current = parser.nextToken();
+        array = current == JsonToken.START_ARRAY;
+        if (array) {
+            current = parser.nextToken();
+        }
+        closeIfFinished();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !isFinished();
+    }
+
+    @Override
+    public T next() {
+        if (isFinished()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            T value = mapper.readValue(parser, type);
+            current = parser.nextToken();
+            closeIfFinished();
+            return value;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Exposes the remaining elements as a sequential {@link java.util.stream.Stream}. Closing the
+     * stream closes this iterator.
+     */
+    public Stream<T> stream() {
+        return StreamSupport
+                .stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+                .onClose(() -> {
+                    try {
+                        close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    /**
+     * Closes the underlying body. Safe to call more than once.
+     */
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+
+    private boolean isFinished() {
+        return current == null || (array && current == JsonToken.END_ARRAY);
+    }
+
+    private void closeIfFinished() throws IOException {
+        if (isFinished()) {
+            close();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.alexforan.please;
+
+/**
+ * What a request does when its route is at a {@link RateLimitPolicy rate} or
+ * {@link ConcurrencyLimitPolicy concurrency} limit.
+ * 
+ * @author forana
+ */
+public enum LimitMode {
+    /**
+     * The calling thread waits until the request may go - including the thread calling
+     * {@link HTTPRequest#sendAsync()}, so that code producing requests faster than they can be sent
+     * is slowed down instead of queueing without bound. Retries and hedges of asynchronous
+     * requests wait without blocking.
+     */
+    BLOCK,
+
+    /**
+     * {@link HTTPRequest#send()} waits until the request may go, while
+     * {@link HTTPRequest#sendAsync()} returns immediately and sends the request once it may.
+     */
+    ASYNC,
+
+    /**
+     * The request fails immediately with an
+     * {@link com.alexforan.please.exceptions.HTTPLimitExceededException}.
+     */
+    REJECT
+}
@@ -0,0 +1,183 @@
+package com.alexforan.please;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.alexforan.please.exceptions.HTTPRequestException;
+import com.alexforan.please.util.LatencyHistogram;
+import com.alexforan.please.util.Routes;
+
+/**
+ * An {@link HTTPListener} that keeps latency histograms for each route, and counts of response
+ * statuses, errors and bytes. Recording is a handful of atomic increments and never locks, so it's
+ * cheap enough to leave attached in production.
+ *
+ * Histograms are read back with {@link #getHistogram(String, Phase)}, for example the 99th
+ * percentile time to first byte is
+ * <code>getHistogram(url, Phase.FIRST_BYTE).getValueAtPercentile(0.99, TimeUnit.MILLISECONDS)</code>.
+ * They accumulate from when the recorder was attached - take differences between readings for
+ * rates over an interval.
+ *
+ * @author forana
+ */
+public class MetricsRecorder implements HTTPListener {
+    /**
+     * The steps of a call that are timed.
+     */
+    public enum Phase {
+        /** Looking the host up, for calls that opened a connection. */
+        DNS,
+        /** Establishing the TCP connection, for calls that opened one. */
+        CONNECT,
+        /** The TLS handshake, for calls that opened a secure connection. */
+        TLS,
+        /** From the start of the call until the response status and headers arrived. */
+        FIRST_BYTE,
+        /** From the start of the call until the response body was read or closed. */
+        TOTAL
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final ConcurrentMap<String, LatencyHistogram[]> routes = new ConcurrentHashMap<>();
+
+    // indexed by status, so counting a response doesn't box it
+    private final LongAdder[] statuses = new LongAdder[600];
+
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    private final LongAdder bytesSent = new LongAdder();
+
+    private final LongAdder bytesReceived = new LongAdder();
+
+    public MetricsRecorder() {
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void dnsResolved(HTTPCall call, long nanos) {
+        histograms(call.getRoute())[Phase.DNS.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void connected(HTTPCall call, long nanos) {
+        histograms(call.getRoute())[Phase.CONNECT.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void tlsHandshakeCompleted(HTTPCall call, long nanos) {
+        histograms(call.getRoute())[Phase.TLS.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void requestSent(HTTPCall call, long bytes, long nanos) {
+        bytesSent.add(bytes);
+    }
+
+    @Override
+    public void responseStarted(HTTPCall call, int status, long nanos) {
+        histograms(call.getRoute())[Phase.FIRST_BYTE.ordinal()].record(nanos);
+        if (status >= 0 && status < statuses.length) {
+            statuses[status].increment();
+        }
+    }
+
+    @Override
+    public void responseCompleted(HTTPCall call, long bytes, long nanos) {
+        histograms(call.getRoute())[Phase.TOTAL.ordinal()].record(nanos);
+        bytesReceived.add(bytes);
+    }
+
+    @Override
+    public void requestFailed(HTTPCall call, Exception error, long nanos) {
+        Throwable cause = error;
+        while (cause instanceof HTTPRequestException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        String name = cause.getClass().getSimpleName();
+        LongAdder counter = errors.get(name);
+        if (counter == null) {
+            errors.putIfAbsent(name, new LongAdder());
+            counter = errors.get(name);
+        }
+        counter.increment();
+    }
+
+    /**
+     * Retrieves the histogram of a phase for the route of <code>url</code>, which is empty if the
+     * route hasn't been used.
+     */
+    public LatencyHistogram getHistogram(String url, Phase phase) {
+        LatencyHistogram[] histograms = routes.get(Routes.of(url));
+        return histograms == null ? new LatencyHistogram() : histograms[phase.ordinal()];
+    }
+
+    /**
+     * Retrieves every route that has been used.
+     */
+    public Set<String> getRoutes() {
+        return new TreeSet<>(routes.keySet());
+    }
+
+    /**
+     * Retrieves the number of responses received with each status.
+     */
+    public Map<Integer, Long> getStatusCounts() {
+        Map<Integer, Long> counts = new TreeMap<>();
+        for (int i = 0; i < statuses.length; i++) {
+            long count = statuses[i].sum();
+            if (count > 0) {
+                counts.put(i, count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Retrieves the number of calls that failed without a response, keyed by the simple class
+     * name of the underlying exception, such as <code>ConnectException</code>.
+     */
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : errors.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    /**
+     * Retrieves the total size of the request bodies sent.
+     */
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * Retrieves the total size of the response bodies read.
+     */
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    private LatencyHistogram[] histograms(String route) {
+        LatencyHistogram[] histograms = routes.get(route);
+        if (histograms == null) {
+            histograms = new LatencyHistogram[PHASES.length];
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+            LatencyHistogram[] existing = routes.putIfAbsent(route, histograms);
+            if (existing != null) {
+                histograms = existing;
+            }
+        }
+        return histograms;
+    }
+}
@@ -0,0 +1,130 @@
+package com.alexforan.please;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.alexforan.please.exceptions.HTTPLimitExceededException;
+import com.alexforan.please.util.Gcra;
+import com.alexforan.please.util.Routes;
+import com.alexforan.please.util.Scheduler;
+
+/**
+ * Limits how fast requests are sent to each route (scheme, host and port), for use with
+ * {@link HTTPRequestFactory#setRateLimitPolicy(RateLimitPolicy)}. Supports builder-style population
+ * and chaining.
+ *
+ * Every route gets its own allowance of the configured rate, plus a burst that builds up while it's
+ * quiet. Requests over the limit wait their turn or are rejected, depending on the
+ * {@link LimitMode}. Waiting requests keep their place in line, and one that would still be waiting
+ * at its deadline fails straight away instead.
+ *
+ * Every attempt counts, including retries and hedged copies.
+ *
+ * @author forana
+ */
+public class RateLimitPolicy {
+    private long permits = 10;
+
+    private long periodNanos = TimeUnit.SECONDS.toNanos(1);
+
+    private int burst = 1;
+
+    private LimitMode mode = LimitMode.BLOCK;
+
+    private final ConcurrentMap<String, Gcra> limiters = new ConcurrentHashMap<>();
+
+    private final LongAdder delayed = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    public RateLimitPolicy() {
+    }
+
+    /**
+     * Sets the rate, such as 100 per 1 minute. Defaults to 10 per second.
+     *
+     * @param permits The number of requests allowed per period.
+     * @return this
+     */
+    public RateLimitPolicy setRate(long permits, long duration, TimeUnit unit) {
+        this.permits = permits;
+        periodNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Sets how many requests may be sent back to back after a quiet spell. Defaults to 1, which
+     * spaces every request out evenly.
+     *
+     * @return this
+     */
+    public RateLimitPolicy setBurst(int value) {
+        burst = value;
+        return this;
+    }
+
+    /**
+     * Sets what requests over the limit do. Defaults to {@link LimitMode#BLOCK}.
+     *
+     * @return this
+     */
+    public RateLimitPolicy setMode(LimitMode value) {
+        mode = value;
+        return this;
+    }
+
+    LimitMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Retrieves the number of requests that had to wait.
+     */
+    public long getDelayed() {
+        return delayed.sum();
+    }
+
+    /**
+     * Retrieves the number of requests failed without being sent.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Takes a permit for a request to <code>uri</code>'s route.
+     *
+     * @param maxWaitNanos The longest the request can wait.
+     * @return A future that completes when the request may be sent, or fails with
+     *         {@link HTTPLimitExceededException}.
+     */
+    CompletableFuture<Void> acquire(URI uri, long maxWaitNanos) {
+        String route = Routes.of(uri);
+        Gcra limiter = limiters.get(route);
+        if (limiter == null) {
+            limiters.putIfAbsent(route, new Gcra(permits, periodNanos, burst));
+            limiter = limiters.get(route);
+        }
+
+        long wait = limiter.reserve(mode == LimitMode.REJECT ? 0 : maxWaitNanos);
+        if (wait == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (wait < 0) {
+            rejected.increment();
+            future.completeExceptionally(new HTTPLimitExceededException(mode == LimitMode.REJECT
+                    ? "Rate limit for " + route + " reached"
+                    : "Rate limit for " + route + " would delay the request past its deadline"));
+            return future;
+        }
+        delayed.increment();
+        Scheduler.schedule(() -> future.complete(null), TimeUnit.NANOSECONDS.toMillis(wait + 999_999));
+        return future;
+    }
+}
@@ -0,0 +1,222 @@
+package com.alexforan.please;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+
+import com.alexforan.please.util.TokenBudget;
+
+/**
+ * Decides whether and when failed requests are tried again, for use with
+ * {@link HTTPRequestFactory#setRetryPolicy(RetryPolicy)}. Supports builder-style population and
+ * chaining.
+ *
+ * Only idempotent methods are retried, and only when the server was never reached (the connection
+ * failed, or was closed before any response) or the response status is one that means "try again
+ * later" - by default 502, 503 and 504. Retries back off exponentially with full jitter, and a
+ * <code>Retry-After</code> header lengthens the wait if it asks for longer.
+ *
+ * All retries made under a policy share one budget, which by default allows extra attempts for
+ * one request in five on top of a burst of 10. Once it runs out, requests fail (or return their
+ * error response) on the first attempt until enough successful traffic has refilled it. A policy
+ * should therefore be shared by the requests going to one set of servers.
+ *
+ * Requests whose body can't be replayed, such as those given an InputStream, are never retried.
+ *
+ * @author forana
+ */
+public class RetryPolicy {
+    private int maxAttempts = 3;
+
+    private long baseDelayMillis = 100;
+
+    private long maxDelayMillis = TimeUnit.SECONDS.toMillis(10);
+
+    private Set<Integer> statuses = new HashSet<>(Arrays.asList(502, 503, 504));
+
+    private Set<String> methods = new HashSet<>(Arrays.asList("GET", "HEAD", "OPTIONS", "PUT", "DELETE", "TRACE"));
+
+    private TokenBudget budget = new TokenBudget(0.2, 10);
+
+    private final LongAdder retries = new LongAdder();
+
+    private final LongAdder exhausted = new LongAdder();
+
+    public RetryPolicy() {
+    }
+
+    /**
+     * Sets the most times a request will be sent, including the first. Defaults to 3.
+     *
+     * @return this
+     */
+    public RetryPolicy setMaxAttempts(int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("There must be at least one attempt");
+        }
+        maxAttempts = value;
+        return this;
+    }
+
+    /**
+     * Sets the delay before the first retry, which doubles with each subsequent one. Each actual
+     * delay is a random amount up to this. Defaults to 100ms.
+     *
+     * @return this
+     */
+    public RetryPolicy setBaseDelay(long duration, TimeUnit unit) {
+        baseDelayMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    /**
+     * Sets the longest delay before a retry. A server asking for a longer wait with
+     * <code>Retry-After</code> gets its response returned instead. Defaults to 10 seconds.
+     *
+     * @return this
+     */
+    public RetryPolicy setMaxDelay(long duration, TimeUnit unit) {
+        maxDelayMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    /**
+     * Sets the response statuses that are retried. Defaults to 502, 503 and 504.
+     *
+     * @return this
+     */
+    public RetryPolicy setRetryStatuses(Integer... values) {
+        statuses = new HashSet<>(Arrays.asList(values));
+        return this;
+    }
+
+    /**
+     * Sets the methods that are safe to retry. Defaults to the idempotent methods - GET, HEAD,
+     * OPTIONS, PUT, DELETE and TRACE.
+     *
+     * @return this
+     */
+    public RetryPolicy setRetryMethods(String... values) {
+        methods = new HashSet<>();
+        for (String value : values) {
+            methods.add(value.toUpperCase(Locale.ROOT));
+        }
+        return this;
+    }
+
+    /**
+     * Sets the retry budget.
+     *
+     * @param ratio The number of retries earned by each request sent - 0.2 allows one request in
+     *            five to be retried once.
+     * @param maxTokens The most retries that can be saved up for a burst of failures.
+     * @return this
+     */
+    public RetryPolicy setBudget(double ratio, int maxTokens) {
+        budget = new TokenBudget(ratio, maxTokens);
+        return this;
+    }
+
+    /**
+     * Retrieves the number of retries made under this policy.
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * Retrieves the number of retries that were wanted but denied because the budget was spent.
+     */
+    public long getBudgetExhausted() {
+        return exhausted.sum();
+    }
+
+    boolean isRetryable(String method) {
+        return maxAttempts > 1 && methods.contains(method.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Credits the budget for a request about to be sent for the first time.
+     */
+    void recordRequest() {
+        budget.deposit();
+    }
+
+    /**
+     * Decides what to do after an attempt.
+     *
+     * @param attempt The number of the attempt that just finished, starting at 1.
+     * @param response Its response, or <code>null</code> if it failed.
+     * @param error The underlying cause of its failure, or <code>null</code> if it got a response.
+     * @return How long to wait before the next attempt, or -1 if there shouldn't be one.
+     */
+    long getDelay(int attempt, HTTPResponse response, Throwable error) {
+        if (attempt >= maxAttempts) {
+            return -1;
+        }
+
+        long retryAfter = -1;
+        if (response != null) {
+            if (!statuses.contains(response.getStatus())) {
+                return -1;
+            }
+            retryAfter = parseRetryAfter(response.getHeader("Retry-After"));
+            if (retryAfter > maxDelayMillis) {
+                return -1;
+            }
+        } else if (!isConnectionFailure(error)) {
+            return -1;
+        }
+
+        if (!budget.tryWithdraw()) {
+            exhausted.increment();
+            return -1;
+        }
+        retries.increment();
+
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+        long backoff = ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+        return Math.max(backoff, retryAfter);
+    }
+
+    /**
+     * Failures where the request can't have been processed, so sending it again is harmless.
+     */
+    private static boolean isConnectionFailure(Throwable error) {
+        if (error instanceof ConnectionPoolTimeoutException) {
+            // the pool is saturated - retrying would only add to the queue
+            return false;
+        }
+        return error instanceof ConnectException
+                || error instanceof ConnectTimeoutException
+                || error instanceof NoRouteToHostException
+                || error instanceof NoHttpResponseException;
+    }
+
+    /**
+     * @return The delay asked for in milliseconds, or -1 if there's no usable header.
+     */
+    private static long parseRetryAfter(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value.trim());
+            return date == null ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+}
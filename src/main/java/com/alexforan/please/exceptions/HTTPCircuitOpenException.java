@@ -0,0 +1,15 @@
+package com.alexforan.please.exceptions;
+
+/**
+ * Exception thrown without sending a request, because its route's circuit breaker is open after
+ * too many recent failures.
+ * 
+ * @author forana
+ */
+public class HTTPCircuitOpenException extends HTTPRequestException {
+    private static final long serialVersionUID = 1L;
+
+    public HTTPCircuitOpenException(String message) {
+        super(message);
+    }
+}
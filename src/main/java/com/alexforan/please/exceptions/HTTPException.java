@@ -15,4 +15,8 @@ public abstract class HTTPException extends Exception {
     protected HTTPException(Throwable cause) {
         super(cause);
     }
+
+    protected HTTPException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
@@ -0,0 +1,15 @@
+package com.alexforan.please.exceptions;
+
+/**
+ * Exception thrown without sending a request, because its route's rate or concurrency limit was
+ * reached and the limit is set to reject rather than wait.
+ * 
+ * @author forana
+ */
+public class HTTPLimitExceededException extends HTTPRequestException {
+    private static final long serialVersionUID = 1L;
+
+    public HTTPLimitExceededException(String message) {
+        super(message);
+    }
+}
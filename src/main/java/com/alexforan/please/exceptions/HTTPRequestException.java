@@ -8,7 +8,15 @@ package com.alexforan.please.exceptions;
 public class HTTPRequestException extends HTTPException {
     private static final long serialVersionUID = 1L;
 
+    public HTTPRequestException(String message) {
+        super(message);
+    }
+
     public HTTPRequestException(Throwable cause) {
         super(cause);
     }
+
+    public HTTPRequestException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
@@ -0,0 +1,19 @@
+package com.alexforan.please.exceptions;
+
+/**
+ * Exception thrown when a request runs out of time - connecting, waiting for a pooled connection,
+ * waiting for data, or overall.
+ * 
+ * @author forana
+ */
+public class HTTPTimeoutException extends HTTPRequestException {
+    private static final long serialVersionUID = 1L;
+
+    public HTTPTimeoutException(Throwable cause) {
+        super(cause);
+    }
+
+    public HTTPTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
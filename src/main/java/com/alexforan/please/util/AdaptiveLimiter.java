@@ -0,0 +1,185 @@
+package com.alexforan.please.util;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits concurrent requests, adjusting the limit with additive increase and multiplicative
+ * decrease: every response that comes back in good time while the limit is being used raises it by
+ * one, and every response that signals overload lowers it by a fraction.
+ *
+ * A response signals overload if the server said so, or if it took more than
+ * <code>tolerance</code> times the baseline - queues are building up somewhere, and sending more
+ * at once will only make every request slower. The baseline follows the fastest recent responses,
+ * and creeps up when every response is slower, so a server that has simply become slower is in
+ * time taken as the new normal.
+ *
+ * Permits are counted with compare-and-set. Callers that would exceed the limit can either be
+ * turned away or queue for the next free permit.
+ *
+ * @author forana
+ */
+public class AdaptiveLimiter {
+    // the weight of each response in the baseline - it falls quickly to meet faster responses,
+    // but rises slowly, so that queueing isn't mistaken for the server's normal pace
+    private static final double FALLING = 0.5;
+
+    private static final double RISING = 0.01;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double tolerance;
+
+    private final double backoff;
+
+    // a double, stored as its bits
+    private final AtomicLong limit;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final Queue<CompletableFuture<AdaptiveLimiter>> waiters = new ConcurrentLinkedQueue<>();
+
+    // a double, stored as its bits, and 0 until the first response
+    private final AtomicLong baseline = new AtomicLong();
+
+    /**
+     * @param initialLimit The limit to start with.
+     * @param minLimit The lowest the limit can fall.
+     * @param maxLimit The highest the limit can rise.
+     * @param tolerance How many times slower than the baseline a response may be before it counts
+     *            as overload.
+     * @param backoff The fraction the limit is multiplied by on overload, such as 0.9.
+     */
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, double backoff) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.backoff = backoff;
+        this.limit = new AtomicLong(Double.doubleToLongBits(initialLimit));
+    }
+
+    /**
+     * Takes a permit if one is free and nobody is queued for one.
+     */
+    public boolean tryAcquire() {
+        return waiters.isEmpty() && take();
+    }
+
+    /**
+     * Takes a permit as soon as one is free.
+     *
+     * @return A future that completes with this limiter once the permit is held. Cancelling it
+     *         gives up the place in the queue.
+     */
+    public CompletableFuture<AdaptiveLimiter> acquire() {
+        if (tryAcquire()) {
+            return CompletableFuture.completedFuture(this);
+        }
+        CompletableFuture<AdaptiveLimiter> waiter = new CompletableFuture<>();
+        waiters.add(waiter);
+        // a permit may have been freed between trying and queueing, with nobody in line to get it
+        drain();
+        return waiter;
+    }
+
+    /**
+     * Returns a permit, adjusting the limit by how its request went.
+     *
+     * @param latencyNanos How long the request took, or -1 if it was abandoned and says nothing
+     *            about the server.
+     * @param overloaded Whether the server signalled that it's overloaded.
+     */
+    public void release(long latencyNanos, boolean overloaded) {
+        int using = inFlight.getAndDecrement();
+        if (latencyNanos >= 0) {
+            adjust(latencyNanos, overloaded, using);
+        }
+        drain();
+    }
+
+    /**
+     * Retrieves the current limit.
+     */
+    public int getLimit() {
+        return (int) Double.longBitsToDouble(limit.get());
+    }
+
+    /**
+     * Retrieves the number of permits held.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private boolean take() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= getLimit()) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void drain() {
+        while (!waiters.isEmpty() && take()) {
+            CompletableFuture<AdaptiveLimiter> waiter = waiters.poll();
+            if (waiter == null || !waiter.complete(this)) {
+                // someone else served the queue, or the waiter gave up
+                inFlight.decrementAndGet();
+                if (waiter == null) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void adjust(long latencyNanos, boolean overloaded, int using) {
+        double previous = updateBaseline(latencyNanos);
+        boolean slow = previous > 0 && latencyNanos > tolerance * previous;
+
+        while (true) {
+            long bits = limit.get();
+            double current = Double.longBitsToDouble(bits);
+            double next;
+            if (overloaded || slow) {
+                next = Math.max(minLimit, current * backoff);
+            } else if (using * 2 >= current) {
+                next = Math.min(maxLimit, current + 1);
+            } else {
+                // a limit that isn't being tested shouldn't grow
+                return;
+            }
+            if (next == current || limit.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Folds a response into the baseline.
+     *
+     * @return The baseline before it.
+     */
+    private double updateBaseline(long latencyNanos) {
+        while (true) {
+            long bits = baseline.get();
+            double current = Double.longBitsToDouble(bits);
+            double weight = latencyNanos < current ? FALLING : RISING;
+            double next = current == 0 ? latencyNanos : current + weight * (latencyNanos - current);
+            if (baseline.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                return current;
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.alexforan.please.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Recycles the byte arrays that response bodies are read into.
+ *
+ * Arrays come in power-of-two size classes, from {@link #MIN_BUFFER_SIZE} up to a maximum, and
+ * each class keeps a fixed number of slots. A thread starts looking for a free array - or a free
+ * slot to give one back to - at a slot picked by its id, so threads mostly touch different slots
+ * and never wait on each other. Larger arrays, and any given back while their class is full, are
+ * left to the garbage collector.
+ *
+ * An array must not be used after it's been released.
+ *
+ * @author forana
+ */
+public class BufferPool {
+    /**
+     * The size of the smallest arrays handed out.
+     */
+    public static final int MIN_BUFFER_SIZE = 8192;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+
+    private final int maxBufferSize;
+
+    private final AtomicReferenceArray<byte[]>[] classes;
+
+    /**
+     * Creates a pool of arrays up to 1MB, keeping twice as many of each size as there are
+     * processors.
+     */
+    public BufferPool() {
+        this(1024 * 1024, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param maxBufferSize The largest array that's kept for reuse, rounded up to a power of two.
+     * @param buffersPerSize How many arrays of each size are kept.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public BufferPool(int maxBufferSize, int buffersPerSize) {
+        if (maxBufferSize < MIN_BUFFER_SIZE || maxBufferSize > (1 << 30) || buffersPerSize < 1) {
+            throw new IllegalArgumentException("Invalid buffer pool size");
+        }
+        this.maxBufferSize = roundUp(maxBufferSize);
+        this.classes = new AtomicReferenceArray[sizeClass(this.maxBufferSize) + 1];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new AtomicReferenceArray<>(buffersPerSize);
+        }
+    }
+
+    /**
+     * Retrieves the largest array that's kept for reuse.
+     */
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    /**
+     * Retrieves an array of at least <code>minSize</code> bytes, which may hold what it was last
+     * used for.
+     */
+    public byte[] acquire(int minSize) {
+        if (minSize > maxBufferSize) {
+            return new byte[minSize];
+        }
+        int size = roundUp(Math.max(minSize, MIN_BUFFER_SIZE));
+        AtomicReferenceArray<byte[]> slots = classes[sizeClass(size)];
+        int start = stripe(slots.length());
+        for (int i = 0; i < slots.length(); i++) {
+            int slot = (start + i) % slots.length();
+            if (slots.get(slot) != null) {
+                byte[] buffer = slots.getAndSet(slot, null);
+                if (buffer != null) {
+                    return buffer;
+                }
+            }
+        }
+        return new byte[size];
+    }
+
+    /**
+     * Gives an array back to the pool. It must not be used by the caller afterwards.
+     */
+    public void release(byte[] buffer) {
+        int size = buffer.length;
+        if (size < MIN_BUFFER_SIZE || size > maxBufferSize || Integer.bitCount(size) != 1) {
+            // not one of ours
+            return;
+        }
+        AtomicReferenceArray<byte[]> slots = classes[sizeClass(size)];
+        int start = stripe(slots.length());
+        for (int i = 0; i < slots.length(); i++) {
+            int slot = (start + i) % slots.length();
+            if (slots.get(slot) == null && slots.compareAndSet(slot, null, buffer)) {
+                return;
+            }
+        }
+    }
+
+    private static int stripe(int slots) {
+        return (int) (Thread.currentThread().getId() % slots);
+    }
+
+    private static int sizeClass(int size) {
+        return Integer.numberOfTrailingZeros(size) - MIN_SHIFT;
+    }
+
+    private static int roundUp(int size) {
+        int highest = Integer.highestOneBit(size);
+        return highest == size ? size : highest << 1;
+    }
+}
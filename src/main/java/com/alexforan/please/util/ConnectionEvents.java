@@ -0,0 +1,32 @@
+package com.alexforan.please.util;
+
+/**
+ * Told how long each step of opening a connection took, by the socket factories of a
+ * {@link ConnectionPool}. A request that wants to know puts one in its context under
+ * {@link #ATTRIBUTE}. Requests served by a pooled connection aren't told anything.
+ *
+ * Methods are called on the thread sending the request, and should return quickly.
+ *
+ * @author forana
+ */
+public interface ConnectionEvents {
+    /**
+     * Context attribute holding the request's instance.
+     */
+    String ATTRIBUTE = "com.alexforan.please.connection-events";
+
+    /**
+     * The host name was looked up.
+     */
+    void dnsResolved(long nanos);
+
+    /**
+     * The TCP connection was established.
+     */
+    void connected(long nanos);
+
+    /**
+     * The TLS handshake on a new connection finished.
+     */
+    void tlsHandshakeCompleted(long nanos);
+}
@@ -0,0 +1,380 @@
+package com.alexforan.please.util;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpRequestRetryHandler;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * A long-lived pool of keep-alive connections and the client that leases from it.
+ *
+ * Expired and idle connections are closed periodically by a background evictor. The client
+ * returned by {@link #getClient()} is shared - closing it is a no-op, and connections are handed
+ * back to the pool when the response body has been consumed or closed.
+ *
+ * A non-blocking client, with its own pool driven by a small fixed set of I/O threads, is created
+ * the first time {@link #getAsyncClient()} is called. Likewise, an HTTP/2 client is created the
+ * first time {@link #getHttp2Client()} is called.
+ *
+ * @author forana
+ */
+public class ConnectionPool {
+    /**
+     * Context attribute that stops the blocking client from automatically resending a request
+     * after an I/O error, for requests that handle retries themselves.
+     */
+    public static final String NO_AUTOMATIC_RETRIES = "com.alexforan.please.no-automatic-retries";
+
+    private static final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "please-connection-evictor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final PoolingHttpClientConnectionManager manager;
+
+    private final CloseableHttpClient client;
+
+    private final CloseableHttpClient sharedClient;
+
+    private final ScheduledFuture<?> eviction;
+
+    private final boolean verifyCertificates;
+
+    private final long idleMillis;
+
+    private volatile long keepAliveMillis = -1;
+
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
+
+    private PoolingNHttpClientConnectionManager asyncManager;
+
+    private CloseableHttpAsyncClient asyncClient;
+
+    private volatile CloseableHttpAsyncClient sharedAsyncClient;
+
+    private ScheduledFuture<?> asyncEviction;
+
+    private volatile Http2Client http2Client;
+
+    /**
+     * Creates a pool and starts evicting connections that have been idle for longer than
+     * <code>idleMillis</code>.
+     *
+     * @param verifyCertificates Whether TLS connections should validate certificates.
+     * @param maxTotal The maximum number of connections across all routes.
+     * @param maxPerRoute The maximum number of connections to a single route (host and port).
+     * @param idleMillis How long a connection may sit idle in the pool before being closed.
+     */
+    public ConnectionPool(boolean verifyCertificates, int maxTotal, int maxPerRoute, long idleMillis) {
+        this(HttpClients.custom(), verifyCertificates, maxTotal, maxPerRoute, idleMillis);
+    }
+
+    /**
+     * Creates a pool whose blocking client is built from <code>builder</code>, such as a caching
+     * client builder. The pool sets the builder's connection manager and keep-alive strategy.
+     *
+     * @see #ConnectionPool(boolean, int, int, long)
+     */
+    public ConnectionPool(HttpClientBuilder builder, boolean verifyCertificates, int maxTotal, int maxPerRoute,
+            final long idleMillis) {
+        this.verifyCertificates = verifyCertificates;
+        this.idleMillis = idleMillis;
+
+        // timed, for requests with listeners that want to know how long connecting took
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory> create()
+                .register("http", TimedSocketFactory.wrap(PlainConnectionSocketFactory.getSocketFactory()))
+                .register("https", TimedSocketFactory.wrap(verifyCertificates
+                        ? SSLConnectionSocketFactory.getSocketFactory()
+                        : NonValidatingClient.createSocketFactory()))
+                .build();
+
+        manager = new PoolingHttpClientConnectionManager(registry, TimedSocketFactory.dnsResolver());
+        manager.setMaxTotal(maxTotal);
+        manager.setDefaultMaxPerRoute(maxPerRoute);
+
+        // content coding is handled by Please itself, consistently across both clients
+        client = builder
+                .setConnectionManager(manager)
+                .setKeepAliveStrategy(new CappedKeepAliveStrategy())
+                .setRetryHandler(new OptionalRetryHandler())
+                .disableContentCompression()
+                .build();
+        sharedClient = new SharedClient(client);
+
+        eviction = scheduleEviction(new Runnable() {
+            @Override
+            public void run() {
+                manager.closeExpiredConnections();
+                manager.closeIdleConnections(idleMillis, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private ScheduledFuture<?> scheduleEviction(Runnable task) {
+        long period = Math.max(idleMillis / 2, 1000);
+        return evictor.scheduleWithFixedDelay(task, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Retrieves the shared client backed by this pool. Calling <code>close()</code> on it does
+     * nothing - use {@link #close()} to shut the pool down.
+     */
+    public CloseableHttpClient getClient() {
+        return sharedClient;
+    }
+
+    /**
+     * Retrieves the shared non-blocking client backed by this pool, starting it if needed. Calling
+     * <code>close()</code> on it does nothing - use {@link #close()} to shut the pool down.
+     *
+     * @throws IOException If the I/O reactor can't be started.
+     */
+    public CloseableHttpAsyncClient getAsyncClient() throws IOException {
+        // once started, the client is handed out without taking the lock
+        CloseableHttpAsyncClient started = sharedAsyncClient;
+        return started != null ? started : startAsyncClient();
+    }
+
+    private synchronized CloseableHttpAsyncClient startAsyncClient() throws IOException {
+        if (sharedAsyncClient == null) {
+            Registry<SchemeIOSessionStrategy> registry = RegistryBuilder.<SchemeIOSessionStrategy> create()
+                    .register("http", NoopIOSessionStrategy.INSTANCE)
+                    .register("https", verifyCertificates
+                            ? SSLIOSessionStrategy.getDefaultStrategy()
+                            : NonValidatingClient.createSessionStrategy())
+                    .build();
+            ConnectingIOReactor reactor = new DefaultConnectingIOReactor(IOReactorConfig.custom()
+                    .setIoThreadCount(ioThreads)
+                    .build());
+
+            asyncManager = new PoolingNHttpClientConnectionManager(reactor, registry);
+            asyncManager.setMaxTotal(manager.getMaxTotal());
+            asyncManager.setDefaultMaxPerRoute(manager.getDefaultMaxPerRoute());
+
+            asyncClient = HttpAsyncClients.custom()
+                    .setConnectionManager(asyncManager)
+                    .setKeepAliveStrategy(new CappedKeepAliveStrategy())
+                    .build();
+            asyncClient.start();
+            sharedAsyncClient = new SharedAsyncClient(asyncClient);
+
+            asyncEviction = scheduleEviction(new Runnable() {
+                @Override
+                public void run() {
+                    asyncManager.closeExpiredConnections();
+                    asyncManager.closeIdleConnections(idleMillis, TimeUnit.MILLISECONDS);
+                }
+            });
+        }
+        return sharedAsyncClient;
+    }
+
+    /**
+     * Retrieves the shared HTTP/2 client for this pool's certificate settings, starting it if
+     * needed. Calling <code>close()</code> on it does nothing - use {@link #close()} to shut the
+     * pool down.
+     */
+    public Http2Client getHttp2Client() {
+        Http2Client started = http2Client;
+        return started != null ? started : startHttp2Client();
+    }
+
+    private synchronized Http2Client startHttp2Client() {
+        if (http2Client == null) {
+            http2Client = new Http2Client(verifyCertificates, ioThreads);
+        }
+        return http2Client;
+    }
+
+    /**
+     * Sets the maximum number of connections across all routes.
+     */
+    public synchronized void setMaxTotal(int value) {
+        manager.setMaxTotal(value);
+        if (asyncManager != null) {
+            asyncManager.setMaxTotal(value);
+        }
+    }
+
+    /**
+     * Sets the maximum number of connections to a single route.
+     */
+    public synchronized void setMaxPerRoute(int value) {
+        manager.setDefaultMaxPerRoute(value);
+        if (asyncManager != null) {
+            asyncManager.setDefaultMaxPerRoute(value);
+        }
+    }
+
+    /**
+     * Sets the number of I/O threads used by the non-blocking and HTTP/2 clients. Only takes
+     * effect for clients that haven't been started yet.
+     */
+    public synchronized void setIOThreads(int value) {
+        ioThreads = value;
+    }
+
+    /**
+     * Caps how long a connection will be kept alive for reuse, regardless of what the server
+     * advertises. A negative value defers entirely to the server's <code>Keep-Alive</code> header.
+     */
+    public void setKeepAliveMillis(long value) {
+        keepAliveMillis = value;
+    }
+
+    /**
+     * Stops the evictor and closes every connection in the pool.
+     */
+    public synchronized void close() {
+        eviction.cancel(false);
+        try {
+            client.close();
+        } catch (IOException e) {
+            // the connection manager swallows these itself, so this shouldn't happen
+            manager.shutdown();
+        }
+
+        if (asyncClient != null) {
+            asyncEviction.cancel(false);
+            try {
+                asyncClient.close();
+            } catch (IOException e) {
+                // nothing else can be done - the reactor is going away regardless
+            }
+        }
+
+        if (http2Client != null) {
+            http2Client.shutdown();
+        }
+    }
+
+    private class CappedKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long advertised = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            long cap = keepAliveMillis;
+            if (cap < 0) {
+                return advertised;
+            }
+            return advertised < 0 ? cap : Math.min(advertised, cap);
+        }
+    }
+
+    /**
+     * HttpClient's default retry behavior, unless the request opted out with
+     * {@link ConnectionPool#NO_AUTOMATIC_RETRIES}.
+     */
+    private static class OptionalRetryHandler implements HttpRequestRetryHandler {
+        @Override
+        public boolean retryRequest(IOException exception, int executionCount, HttpContext context) {
+            return context.getAttribute(NO_AUTOMATIC_RETRIES) == null
+                    && DefaultHttpRequestRetryHandler.INSTANCE.retryRequest(exception, executionCount, context);
+        }
+    }
+
+    /**
+     * Client view that delegates execution but ignores <code>close()</code>, so that callers
+     * written against a per-request client can't tear down the shared pool.
+     */
+    private static class SharedClient extends CloseableHttpClient {
+        private final CloseableHttpClient delegate;
+
+        SharedClient(CloseableHttpClient delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context)
+                throws IOException, ClientProtocolException {
+            return delegate.execute(target, request, context);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        @Deprecated
+        @SuppressWarnings("deprecation")
+        public org.apache.http.params.HttpParams getParams() {
+            return delegate.getParams();
+        }
+
+        @Override
+        @Deprecated
+        @SuppressWarnings("deprecation")
+        public org.apache.http.conn.ClientConnectionManager getConnectionManager() {
+            return delegate.getConnectionManager();
+        }
+    }
+
+    /**
+     * Non-blocking counterpart of {@link SharedClient}.
+     */
+    private static class SharedAsyncClient extends CloseableHttpAsyncClient {
+        private final CloseableHttpAsyncClient delegate;
+
+        SharedAsyncClient(CloseableHttpAsyncClient delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer,
+                HttpAsyncResponseConsumer<T> responseConsumer, HttpContext context, FutureCallback<T> callback) {
+            return delegate.execute(requestProducer, responseConsumer, context, callback);
+        }
+
+        @Override
+        public boolean isRunning() {
+            return delegate.isRunning();
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.alexforan.please.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.FileContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+/**
+ * HttpEntity for a region of a file, read through a {@link FileChannel} rather than an
+ * InputStream.
+ *
+ * The non-blocking client pulls the body from the entity made by {@link #toAsyncEntity()}, and
+ * where its encoder can take a file directly - on a plain connection - the region is handed to
+ * {@link FileChannel#transferTo}, which the kernel copies to the socket without it ever entering
+ * the heap. Otherwise it's read through one direct buffer. The blocking client can only be given
+ * an OutputStream, so there the region is copied through one reused array.
+ *
+ * The file is opened afresh for each send, so the entity is repeatable, but it shouldn't change
+ * until the request has been sent.
+ *
+ * @author forana
+ */
+public class FileRegionEntity extends AbstractHttpEntity {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+
+    private final long position;
+
+    private final long count;
+
+    /**
+     * @param path
+     * @param position Where the region starts.
+     * @param count How long the region is.
+     */
+    public FileRegionEntity(Path path, long position, long count) {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("Position and count can't be negative");
+        }
+        this.path = path;
+        this.position = position;
+        this.count = count;
+        setContentType("application/octet-stream");
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return count;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        FileChannel source = FileChannel.open(path, StandardOpenOption.READ);
+        source.position(position);
+        return new BoundedInputStream(Channels.newInputStream(source), count);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        try (FileChannel source = FileChannel.open(path, StandardOpenOption.READ)) {
+            byte[] array = new byte[(int) Math.min(BUFFER_SIZE, Math.max(count, 1))];
+            ByteBuffer wrapped = ByteBuffer.wrap(array);
+            long remaining = count;
+            while (remaining > 0) {
+                wrapped.clear().limit((int) Math.min(array.length, remaining));
+                int read = source.read(wrapped, position + count - remaining);
+                if (read < 0) {
+                    throw new IOException("File ended " + remaining + " bytes before the region did");
+                }
+                out.write(array, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    /**
+     * Creates an entity for the same region to be sent once by the non-blocking client, which
+     * keeps track of how far through the file it is.
+     */
+    public FileRegionEntity toAsyncEntity() {
+        FileRegionEntity copy = new AsyncRegion(path, position, count);
+        copy.setContentType(getContentType());
+        return copy;
+    }
+
+    /**
+     * Produces the region for the non-blocking client.
+     */
+    private static class AsyncRegion extends FileRegionEntity implements HttpAsyncContentProducer {
+        private FileChannel channel;
+
+        private long produced;
+
+        private ByteBuffer buffer;
+
+        AsyncRegion(Path path, long position, long count) {
+            super(path, position, count);
+        }
+
+        @Override
+        public FileRegionEntity toAsyncEntity() {
+            return this;
+        }
+
+        @Override
+        public void produceContent(ContentEncoder encoder, IOControl control) throws IOException {
+            // the region's fields are private to the superclass
+            FileRegionEntity region = this;
+            if (channel == null) {
+                channel = FileChannel.open(region.path, StandardOpenOption.READ);
+                produced = 0;
+            }
+
+            long remaining = region.count - produced;
+            if (remaining > 0) {
+                long written;
+                if (encoder instanceof FileContentEncoder) {
+                    written = ((FileContentEncoder) encoder).transfer(channel, region.position + produced, remaining);
+                } else {
+                    if (buffer == null) {
+                        buffer = ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE, remaining));
+                    }
+                    if (buffer.position() == 0) {
+                        // the previous chunk has been written in full, so read the next
+                        buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                        if (channel.read(buffer, region.position + produced) < 0) {
+                            throw new IOException("File ended " + remaining + " bytes before the region did");
+                        }
+                    }
+                    buffer.flip();
+                    written = encoder.write(buffer);
+                    buffer.compact();
+                }
+                produced += written;
+            }
+
+            if (produced >= region.count) {
+                encoder.complete();
+                close();
+            }
+        }
+
+        /**
+         * Closes the file, so that a repeated send starts over.
+         */
+        @Override
+        public void close() throws IOException {
+            FileChannel open = channel;
+            channel = null;
+            buffer = null;
+            if (open != null) {
+                open.close();
+            }
+        }
+    }
+
+    /**
+     * Reads no further than the end of the region.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long remaining) {
+            super(in);
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.alexforan.please.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * HttpEntity for an application/x-www-form-urlencoded body, encoded with a
+ * {@link PercentEncoder} straight onto the connection's output stream.
+ *
+ * The length of the body is counted when the entity is created, so it's sent with a
+ * Content-Length rather than chunked, but the body itself is never held as a string. The fields
+ * are copied, so the entity is repeatable whatever happens to the form afterward.
+ *
+ * @author forana
+ */
+public class FormEntity extends AbstractHttpEntity {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final NameValuePair[] fields;
+
+    private final Charset charset;
+
+    private final long length;
+
+    public FormEntity(List<? extends NameValuePair> fields, Charset charset) {
+        this.fields = fields.toArray(new NameValuePair[fields.size()]);
+        this.charset = charset;
+        setContentType(ContentType.create("application/x-www-form-urlencoded", charset).toString());
+
+        long length = Math.max(this.fields.length - 1, 0);
+        for (NameValuePair field : this.fields) {
+            length += PercentEncoder.encodedLength(field.getName(), charset);
+            if (field.getValue() != null) {
+                length += 1 + PercentEncoder.encodedLength(field.getValue(), charset);
+            }
+        }
+        this.length = length;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Encodes the body into memory. Only used by consumers that pull rather than push the body -
+     * {@link #writeTo(OutputStream)} is preferred.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        PercentEncoder encoder = new PercentEncoder((int) length);
+        for (int i = 0; i < fields.length; i++) {
+            encodeField(i, encoder);
+        }
+        return new ByteArrayInputStream(encoder.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        PercentEncoder encoder = new PercentEncoder((int) Math.min(length, BUFFER_SIZE));
+        for (int i = 0; i < fields.length; i++) {
+            encodeField(i, encoder);
+            if (encoder.size() >= BUFFER_SIZE) {
+                encoder.writeTo(out);
+                encoder.reset();
+            }
+        }
+        encoder.writeTo(out);
+    }
+
+    private void encodeField(int i, PercentEncoder encoder) {
+        if (i > 0) {
+            encoder.append('&');
+        }
+        NameValuePair field = fields[i];
+        encoder.encode(field.getName(), charset);
+        if (field.getValue() != null) {
+            encoder.append('=').encode(field.getValue(), charset);
+        }
+    }
+}
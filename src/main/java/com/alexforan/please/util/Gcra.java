@@ -0,0 +1,58 @@
+package com.alexforan.please.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A rate limiter using the generic cell rate algorithm, which is equivalent to a token bucket but
+ * needs only one number - the theoretical arrival time of the next request. Taking a permit is
+ * a single compare-and-set. Lock-free.
+ *
+ * Permits are reserved rather than polled: a caller that is willing to wait is told how long, and
+ * its place is kept, so waiting callers go in the order they arrived.
+ *
+ * @author forana
+ */
+public class Gcra {
+    private final long intervalNanos;
+
+    private final long toleranceNanos;
+
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * @param permits How many requests are allowed per period.
+     * @param periodNanos The period.
+     * @param burst How many requests may be sent at once after a quiet spell.
+     */
+    public Gcra(long permits, long periodNanos, int burst) {
+        if (permits < 1 || periodNanos < 1 || burst < 1) {
+            throw new IllegalArgumentException("Permits, period and burst must all be positive");
+        }
+        this.intervalNanos = Math.max(1, periodNanos / permits);
+        this.toleranceNanos = intervalNanos * (burst - 1);
+        this.theoreticalArrival = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Reserves a permit.
+     *
+     * @param maxWaitNanos The longest the caller is willing to wait - 0 to take a permit only if
+     *            one is available now.
+     * @return How long to wait before using the permit, or -1 if that would be longer than
+     *         <code>maxWaitNanos</code>, in which case nothing is reserved.
+     */
+    public long reserve(long maxWaitNanos) {
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalArrival.get();
+            long base = current - now > 0 ? current : now;
+            long wait = Math.max(0, current - toleranceNanos - now);
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (theoreticalArrival.compareAndSet(current, base + intervalNanos)) {
+                return wait;
+            }
+        }
+    }
+}
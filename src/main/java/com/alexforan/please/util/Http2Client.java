@@ -0,0 +1,296 @@
+package com.alexforan.please.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.impl.async.H2AsyncClientBuilder;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.nio.ssl.TlsStrategy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.Configurable;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.execchain.RequestAbortedException;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Client that sends requests over HTTP/2, multiplexing every concurrent request to a host over a
+ * single connection.
+ *
+ * Requests and responses are translated to and from HttpClient 4 types, so it can stand in for the
+ * HTTP/1.1 clients everywhere. <code>https</code> URLs negotiate <code>h2</code> with ALPN;
+ * <code>http</code> URLs use cleartext <code>h2c</code> with prior knowledge, so the server must
+ * already be known to speak HTTP/2.
+ *
+ * Bodies are held in memory in both directions, so this client is meant for many small requests
+ * rather than large transfers. A {@link FileRegionEntity}, which exists to keep a file out of
+ * memory, is refused rather than silently read in.
+ *
+ * Like the other pooled clients, calling <code>close()</code> does nothing - use
+ * {@link #shutdown()}.
+ *
+ * @author forana
+ */
+public class Http2Client extends CloseableHttpClient {
+    private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+    // connection-specific headers are forbidden in HTTP/2, and lengths are set from the body
+    private static final Set<String> EXCLUDED_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade", "host",
+            "content-length"));
+
+    private final org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient client;
+
+    /**
+     * Creates and starts a client.
+     *
+     * @param verifyCertificates Whether TLS connections should validate certificates.
+     * @param ioThreads The number of threads driving connections.
+     */
+    public Http2Client(boolean verifyCertificates, int ioThreads) {
+        TlsStrategy tls = verifyCertificates
+                ? ClientTlsStrategyBuilder.create().useSystemProperties().build()
+                : NonValidatingClient.createTlsStrategy();
+        client = H2AsyncClientBuilder.create()
+                .setTlsStrategy(tls)
+                .setIOReactorConfig(IOReactorConfig.custom()
+                        .setIoThreadCount(ioThreads)
+                        .build())
+                .build();
+        client.start();
+    }
+
+    /**
+     * Sends a request without blocking.
+     *
+     * @return A future for the response, which can be cancelled to abort the request.
+     * @throws IOException If the request's body can't be read.
+     */
+    public Future<HttpResponse> execute(HttpUriRequest request, final FutureCallback<HttpResponse> callback)
+            throws IOException {
+        final CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+        final Future<SimpleHttpResponse> pending = client.execute(
+                toHttp2(request.getURI(), request),
+                new org.apache.hc.core5.concurrent.FutureCallback<SimpleHttpResponse>() {
+                    @Override
+                    public void completed(SimpleHttpResponse response) {
+                        HttpResponse converted = fromHttp2(response);
+                        if (future.complete(converted) && callback != null) {
+                            callback.completed(converted);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        if (future.completeExceptionally(e) && callback != null) {
+                            callback.failed(e);
+                        }
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        if (future.cancel(false) && callback != null) {
+                            callback.cancelled();
+                        }
+                    }
+                });
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled()) {
+                pending.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    @Override
+    protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context)
+            throws IOException, ClientProtocolException {
+        URI uri;
+        try {
+            uri = request instanceof HttpUriRequest && ((HttpUriRequest) request).getURI().isAbsolute()
+                    ? ((HttpUriRequest) request).getURI()
+                    : new URI(target.toURI() + request.getRequestLine().getUri());
+        } catch (URISyntaxException e) {
+            throw new ClientProtocolException(e);
+        }
+
+        final Future<SimpleHttpResponse> pending = client.execute(toHttp2(uri, request), null);
+        if (request instanceof HttpExecutionAware) {
+            HttpExecutionAware abortable = (HttpExecutionAware) request;
+            if (abortable.isAborted()) {
+                pending.cancel(true);
+                throw new RequestAbortedException("Request aborted");
+            }
+            abortable.setCancellable(new Cancellable() {
+                @Override
+                public boolean cancel() {
+                    return pending.cancel(true);
+                }
+            });
+        }
+
+        try {
+            return fromHttp2(pending.get());
+        } catch (InterruptedException e) {
+            pending.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for response");
+        } catch (CancellationException e) {
+            throw new RequestAbortedException("Request aborted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new ClientProtocolException(cause);
+        }
+    }
+
+    private static SimpleHttpRequest toHttp2(URI uri, HttpRequest request) throws IOException {
+        SimpleHttpRequest converted = SimpleHttpRequest.create(request.getRequestLine().getMethod(), uri);
+        RequestConfig config = request instanceof Configurable ? ((Configurable) request).getConfig() : null;
+        if (config != null) {
+            converted.setConfig(toHttp2(config));
+        }
+        for (Header header : request.getAllHeaders()) {
+            if (!EXCLUDED_HEADERS.contains(header.getName().toLowerCase(Locale.ROOT))) {
+                converted.addHeader(header.getName(), header.getValue());
+            }
+        }
+
+        HttpEntity entity = request instanceof HttpEntityEnclosingRequest
+                ? ((HttpEntityEnclosingRequest) request).getEntity()
+                : null;
+        if (entity instanceof FileRegionEntity) {
+            throw new ClientProtocolException("File bodies aren't supported over HTTP/2");
+        }
+        if (entity != null) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            entity.writeTo(body);
+            Header contentType = entity.getContentType() != null
+                    ? entity.getContentType()
+                    : request.getFirstHeader("Content-Type");
+            if (entity.getContentEncoding() != null && !request.containsHeader("Content-Encoding")) {
+                converted.addHeader("Content-Encoding", entity.getContentEncoding().getValue());
+            }
+            converted.setBody(body.toByteArray(),
+                    contentType == null ? null : ContentType.parse(contentType.getValue()));
+        }
+        return converted;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static org.apache.hc.client5.http.config.RequestConfig toHttp2(RequestConfig config) {
+        org.apache.hc.client5.http.config.RequestConfig.Builder converted =
+                org.apache.hc.client5.http.config.RequestConfig.custom();
+        if (config.getConnectTimeout() >= 0) {
+            converted.setConnectTimeout(config.getConnectTimeout(), TimeUnit.MILLISECONDS);
+        }
+        if (config.getSocketTimeout() >= 0) {
+            converted.setResponseTimeout(config.getSocketTimeout(), TimeUnit.MILLISECONDS);
+        }
+        if (config.getConnectionRequestTimeout() >= 0) {
+            converted.setConnectionRequestTimeout(config.getConnectionRequestTimeout(), TimeUnit.MILLISECONDS);
+        }
+        return converted.build();
+    }
+
+    private static Http2Response fromHttp2(SimpleHttpResponse response) {
+        int status = response.getCode();
+        String reason = response.getReasonPhrase();
+        if (reason == null || reason.isEmpty()) {
+            // HTTP/2 has no reason phrase, but callers of getStatusText() expect one
+            reason = EnglishReasonPhraseCatalog.INSTANCE.getReason(status, Locale.ENGLISH);
+        }
+        Http2Response converted = new Http2Response(status, reason);
+        for (org.apache.hc.core5.http.Header header : response.getHeaders()) {
+            converted.addHeader(header.getName(), header.getValue());
+        }
+
+        byte[] body = response.getBodyBytes();
+        if (body != null) {
+            ByteArrayEntity entity = new ByteArrayEntity(body);
+            entity.setContentType(converted.getFirstHeader("Content-Type"));
+            entity.setContentEncoding(converted.getFirstHeader("Content-Encoding"));
+            converted.setEntity(entity);
+        }
+        return converted;
+    }
+
+    /**
+     * Closes every connection and stops the I/O threads.
+     */
+    public void shutdown() {
+        client.close(CloseMode.GRACEFUL);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Only here for HttpClient's legacy API - requests are configured with RequestConfig.
+     */
+    @Override
+    @Deprecated
+    @SuppressWarnings("deprecation")
+    public org.apache.http.params.HttpParams getParams() {
+        return new org.apache.http.params.BasicHttpParams();
+    }
+
+    /**
+     * Only here for HttpClient's legacy API - connections are managed by the HTTP/2 client, so
+     * there is none.
+     */
+    @Override
+    @Deprecated
+    @SuppressWarnings("deprecation")
+    public org.apache.http.conn.ClientConnectionManager getConnectionManager() {
+        return null;
+    }
+
+    /**
+     * A fully-read response, so closing it has nothing to release.
+     */
+    private static class Http2Response extends BasicHttpResponse implements CloseableHttpResponse {
+        Http2Response(int status, String reason) {
+            super(HTTP_2, status, reason);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.alexforan.please.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Inflater;
+
+/**
+ * Recycles {@link java.util.zip.Inflater} instances and their input buffers between responses.
+ *
+ * An Inflater holds native zlib state that is expensive to set up and is only freed by
+ * <code>end()</code> or finalization, so reusing them avoids both the allocation and the native
+ * memory churn of decompressing every response with a fresh one. The pool is bounded - anything
+ * released while it's full is simply discarded.
+ *
+ * @author forana
+ */
+public class InflaterPool {
+    /**
+     * Size of the compressed-input buffers handed out by {@link #acquireBuffer()}.
+     */
+    public static final int BUFFER_SIZE = 8192;
+
+    private static final int CAPACITY = 64;
+
+    // zlib-wrapped (RFC 1950) and raw (RFC 1951, used by gzip) inflaters can't be interchanged
+    private static final BlockingQueue<Inflater> wrapped = new ArrayBlockingQueue<>(CAPACITY);
+
+    private static final BlockingQueue<Inflater> raw = new ArrayBlockingQueue<>(CAPACITY);
+
+    private static final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(CAPACITY);
+
+    private InflaterPool() {
+    }
+
+    /**
+     * Retrieves a reset Inflater from the pool, or creates one if the pool is empty.
+     *
+     * @param nowrap <code>true</code> for raw deflate data (as inside gzip), <code>false</code> for
+     *            zlib-wrapped data.
+     */
+    public static Inflater acquire(boolean nowrap) {
+        Inflater inflater = (nowrap ? raw : wrapped).poll();
+        return inflater == null ? new Inflater(nowrap) : inflater;
+    }
+
+    /**
+     * Returns an Inflater to the pool. It must not be used by the caller afterwards.
+     *
+     * @param nowrap The same value the Inflater was acquired with.
+     */
+    public static void release(Inflater inflater, boolean nowrap) {
+        inflater.reset();
+        if (!(nowrap ? raw : wrapped).offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Retrieves an input buffer of {@link #BUFFER_SIZE} bytes from the pool, or allocates one.
+     */
+    public static byte[] acquireBuffer() {
+        byte[] buffer = buffers.poll();
+        return buffer == null ? new byte[BUFFER_SIZE] : buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. It must not be used by the caller afterwards.
+     */
+    public static void releaseBuffer(byte[] buffer) {
+        buffers.offer(buffer);
+    }
+}
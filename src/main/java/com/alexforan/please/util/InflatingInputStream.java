@@ -0,0 +1,290 @@
+package com.alexforan.please.util;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses a <code>gzip</code> or <code>deflate</code> content-coded body as it's read, using an
+ * Inflater and input buffer borrowed from {@link InflaterPool}.
+ *
+ * Both are returned to the pool as soon as the compressed data ends or the stream is closed. The
+ * gzip header is parsed lazily, so an empty body reads as empty rather than failing.
+ *
+ * @author forana
+ */
+public class InflatingInputStream extends FilterInputStream {
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final boolean gzip;
+
+    private final CRC32 crc;
+
+    private final byte[] single = new byte[1];
+
+    private boolean nowrap;
+
+    private Inflater inflater;
+
+    private byte[] buffer;
+
+    private int bufferLength;
+
+    private boolean started;
+
+    private boolean finished;
+
+    private boolean closed;
+
+    private InflatingInputStream(InputStream in, boolean gzip) {
+        super(in);
+        this.gzip = gzip;
+        this.crc = gzip ? new CRC32() : null;
+    }
+
+    /**
+     * Wraps a stream according to its content coding. Codings other than <code>gzip</code>,
+     * <code>x-gzip</code> and <code>deflate</code> are passed through untouched.
+     *
+     * @param in The raw body.
+     * @param contentEncoding The value of the Content-Encoding header, or <code>null</code>.
+     */
+    public static InputStream wrap(InputStream in, String contentEncoding) {
+        if (contentEncoding == null) {
+            return in;
+        }
+        String coding = contentEncoding.trim();
+        if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) {
+            return new InflatingInputStream(in, true);
+        } else if (coding.equalsIgnoreCase("deflate")) {
+            return new InflatingInputStream(in, false);
+        }
+        return in;
+    }
+
+    /**
+     * Whether {@link #wrap(InputStream, String)} would decompress a body with this coding.
+     */
+    public static boolean isSupported(String contentEncoding) {
+        if (contentEncoding == null) {
+            return false;
+        }
+        String coding = contentEncoding.trim();
+        return coding.equalsIgnoreCase("gzip")
+                || coding.equalsIgnoreCase("x-gzip")
+                || coding.equalsIgnoreCase("deflate");
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!started) {
+            start();
+        }
+        while (!finished) {
+            int inflated;
+            try {
+                inflated = inflater.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+            if (inflated > 0) {
+                if (crc != null) {
+                    crc.update(b, off, inflated);
+                }
+                return inflated;
+            }
+            if (inflater.finished()) {
+                finish();
+            } else if (inflater.needsDictionary()) {
+                throw new ZipException("Compressed body requires a preset dictionary");
+            } else if (inflater.needsInput()) {
+                fill();
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] scratch = new byte[(int) Math.min(n, 512)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(scratch, 0, (int) Math.min(n - skipped, scratch.length));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        return finished ? 0 : 1;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            recycle();
+            in.close();
+        }
+    }
+
+    private void start() throws IOException {
+        started = true;
+        buffer = InflaterPool.acquireBuffer();
+        if (gzip) {
+            if (!readGzipHeader()) {
+                finished = true;
+                return;
+            }
+            nowrap = true;
+            inflater = InflaterPool.acquire(true);
+        } else {
+            // "deflate" should be zlib-wrapped, but plenty of servers send raw deflate data
+            bufferLength = in.read(buffer);
+            if (bufferLength == -1) {
+                finished = true;
+                return;
+            }
+            nowrap = bufferLength < 2 || !isZlibHeader(buffer[0] & 0xff, buffer[1] & 0xff);
+            inflater = InflaterPool.acquire(nowrap);
+            inflater.setInput(buffer, 0, bufferLength);
+        }
+    }
+
+    private static boolean isZlibHeader(int cmf, int flg) {
+        return (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    private void fill() throws IOException {
+        bufferLength = in.read(buffer);
+        if (bufferLength == -1) {
+            throw new EOFException("Unexpected end of compressed body");
+        }
+        inflater.setInput(buffer, 0, bufferLength);
+    }
+
+    private void finish() throws IOException {
+        if (gzip) {
+            readGzipTrailer();
+        }
+        finished = true;
+        recycle();
+    }
+
+    private void recycle() {
+        if (inflater != null) {
+            InflaterPool.release(inflater, nowrap);
+            inflater = null;
+        }
+        if (buffer != null) {
+            InflaterPool.releaseBuffer(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the body was empty.
+     */
+    private boolean readGzipHeader() throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return false;
+        }
+        if ((first | (readByte() << 8)) != GZIP_MAGIC) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (readByte() != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+        int flags = readByte();
+        skipFully(6); // modification time, extra flags, OS
+        if ((flags & FEXTRA) != 0) {
+            skipFully(readByte() | (readByte() << 8));
+        }
+        if ((flags & FNAME) != 0) {
+            skipTerminated();
+        }
+        if ((flags & FCOMMENT) != 0) {
+            skipTerminated();
+        }
+        if ((flags & FHCRC) != 0) {
+            skipFully(2);
+        }
+        return true;
+    }
+
+    private void readGzipTrailer() throws IOException {
+        // the trailer may have already been pulled into the input buffer along with the data
+        int remaining = inflater.getRemaining();
+        int offset = bufferLength - remaining;
+        long[] trailer = new long[8];
+        for (int i = 0; i < trailer.length; i++) {
+            trailer[i] = i < remaining ? buffer[offset + i] & 0xff : readByte();
+        }
+        long expectedCrc = trailer[0] | (trailer[1] << 8) | (trailer[2] << 16) | (trailer[3] << 24);
+        long expectedSize = trailer[4] | (trailer[5] << 8) | (trailer[6] << 16) | (trailer[7] << 24);
+        if (expectedCrc != crc.getValue() || expectedSize != (inflater.getBytesWritten() & 0xffffffffL)) {
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Unexpected end of compressed body");
+        }
+        return b;
+    }
+
+    private void skipFully(int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            readByte();
+        }
+    }
+
+    private void skipTerminated() throws IOException {
+        while (readByte() != 0) {
+        }
+    }
+}
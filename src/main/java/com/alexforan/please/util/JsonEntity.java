@@ -0,0 +1,131 @@
+package com.alexforan.please.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * HttpEntity that serializes a value as JSON with Jackson, as the request is sent.
+ *
+ * By default the value is serialized into memory the first time the entity is asked for its
+ * length, so that the body goes out with a Content-Length, and the same bytes are sent again on
+ * retries. A chunked entity instead serializes straight onto the connection's output stream,
+ * buffering nothing beyond Jackson's own output buffer, for bodies too large to hold - some
+ * servers don't accept chunked requests, so it's only done when asked for.
+ *
+ * The value is held by reference, so the entity is repeatable as long as the value isn't modified.
+ *
+ * @author forana
+ */
+public class JsonEntity extends AbstractHttpEntity {
+    private final ObjectMapper mapper;
+
+    private final Object value;
+
+    private final Charset charset;
+
+    private volatile byte[] body;
+
+    public JsonEntity(ObjectMapper mapper, Object value, Charset charset) {
+        this(mapper, value, charset, false);
+    }
+
+    /**
+     * @param chunked Whether to serialize the value straight onto the connection, with chunked
+     *            transfer, rather than into memory first.
+     */
+    public JsonEntity(ObjectMapper mapper, Object value, Charset charset, boolean chunked) {
+        this.mapper = mapper;
+        this.value = value;
+        this.charset = charset;
+        setContentType("application/json; charset=" + charset.name());
+        setChunked(chunked);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        if (isChunked()) {
+            return -1;
+        }
+        try {
+            return serialize().length;
+        } catch (IOException e) {
+            // sent chunked, so that the same failure surfaces from writeTo() and fails the request
+            return -1;
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Serializes the value into memory. Only used by consumers that pull rather than push the
+     * body - {@link #writeTo(OutputStream)} is preferred.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        if (!isChunked()) {
+            return new ByteArrayInputStream(serialize());
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        write(buffer);
+        return new ByteArrayInputStream(buffer.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (isChunked()) {
+            write(out);
+        } else {
+            out.write(serialize());
+        }
+    }
+
+    private byte[] serialize() throws IOException {
+        byte[] serialized = body;
+        if (serialized == null) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            write(buffer);
+            body = serialized = buffer.toByteArray();
+        }
+        return serialized;
+    }
+
+    private void write(OutputStream out) throws IOException {
+        JsonGenerator generator = createGenerator(out);
+        // the stream belongs to the connection, which will close it itself
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try {
+            mapper.writeValue(generator, value);
+        } finally {
+            generator.close();
+        }
+    }
+
+    private JsonGenerator createGenerator(OutputStream out) throws IOException {
+        for (JsonEncoding encoding : JsonEncoding.values()) {
+            if (encoding.getJavaName().equalsIgnoreCase(charset.name())) {
+                return mapper.getFactory().createGenerator(out, encoding);
+            }
+        }
+        // Jackson only encodes UTF-8/16/32 natively - anything else goes through a writer
+        return mapper.getFactory().createGenerator(new OutputStreamWriter(out, charset));
+    }
+}
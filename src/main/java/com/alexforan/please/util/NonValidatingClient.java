@@ -9,9 +9,15 @@ import java.security.cert.X509Certificate;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.X509TrustManager;
 
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.client5.http.ssl.NoopHostnameVerifier;
+import org.apache.hc.core5.http.nio.ssl.TlsStrategy;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
 
 /**
  * CloseableHttpClient implementation that skips certificate validation.
@@ -52,10 +58,48 @@ public class NonValidatingClient {
     }
     
     public static CloseableHttpClient create() {
-        return HttpClients.custom().setSSLSocketFactory(new SSLConnectionSocketFactory(
+        return HttpClients.custom().setSSLSocketFactory(createSocketFactory())
+                .build();
+    }
+
+    /**
+     * Creates a socket factory that skips certificate and hostname validation, for use with a
+     * pooled connection manager.
+     */
+    public static SSLConnectionSocketFactory createSocketFactory() {
+        return new SSLConnectionSocketFactory(
                 nonValidatingContext,
                 SSLConnectionSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER
-                ))
+                );
+    }
+
+    /**
+     * Creates a non-blocking client that skips certificate and hostname validation.
+     */
+    public static CloseableHttpAsyncClient createAsync() {
+        return HttpAsyncClients.custom().setSSLStrategy(createSessionStrategy())
+                .build();
+    }
+
+    /**
+     * Creates a TLS session strategy that skips certificate and hostname validation, for use with
+     * a pooled non-blocking connection manager.
+     */
+    public static SSLIOSessionStrategy createSessionStrategy() {
+        return new SSLIOSessionStrategy(
+                nonValidatingContext,
+                SSLIOSessionStrategy.ALLOW_ALL_HOSTNAME_VERIFIER
+                );
+    }
+
+    /**
+     * Creates a TLS strategy that skips certificate and hostname validation, for use with the
+     * HTTP/2 client.
+     */
+    public static TlsStrategy createTlsStrategy() {
+        return ClientTlsStrategyBuilder.create()
+                .setSslContext(nonValidatingContext)
+                .setHostnameVerifier(NoopHostnameVerifier.INSTANCE)
                 .build();
     }
 }
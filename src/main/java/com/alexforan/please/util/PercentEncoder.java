@@ -0,0 +1,230 @@
+package com.alexforan.please.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Percent-encodes query parameters, form fields and path segments into a reusable byte buffer.
+ *
+ * Form encoding is that of application/x-www-form-urlencoded, and of URLEncodedUtils - letters,
+ * digits and <code>-_.*</code> are kept, spaces become <code>+</code>, and everything else is
+ * encoded as the bytes of its charset. Path segments keep the unreserved characters of RFC 3986,
+ * <code>-._~</code> rather than <code>*</code>, and encode spaces as <code>%20</code>.
+ *
+ * ASCII text in a charset that encodes it as ASCII - UTF-8 and ISO-8859-1 - is written a character
+ * at a time, without encoding it to a byte array first. Only runs of other characters go through
+ * the charset.
+ *
+ * The output is ASCII, so it can be written out as bytes or appended to a string as it is. An
+ * encoder isn't thread-safe.
+ *
+ * @author forana
+ */
+public final class PercentEncoder {
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private static final boolean[] FORM_SAFE = new boolean[128];
+
+    private static final boolean[] PATH_SAFE = new boolean[128];
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            boolean alphanumeric = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+            FORM_SAFE[c] = alphanumeric || c == '-' || c == '_' || c == '.' || c == '*';
+            PATH_SAFE[c] = alphanumeric || c == '-' || c == '_' || c == '.' || c == '~';
+        }
+    }
+
+    private byte[] buffer;
+
+    private int size;
+
+    /**
+     * @param capacity How many bytes the buffer starts with. It grows as needed.
+     */
+    public PercentEncoder(int capacity) {
+        buffer = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Appends a form field or query parameter name or value.
+     *
+     * @return this
+     */
+    public PercentEncoder encode(CharSequence value, Charset charset) {
+        return encode(value, charset, FORM_SAFE, true);
+    }
+
+    /**
+     * Appends a path segment, encoded as UTF-8, so that a <code>/</code> in it is sent as
+     * <code>%2F</code>.
+     *
+     * @return this
+     */
+    public PercentEncoder encodePathSegment(CharSequence value) {
+        return encode(value, StandardCharsets.UTF_8, PATH_SAFE, false);
+    }
+
+    /**
+     * Appends an ASCII character as it is, such as a <code>&amp;</code> between fields.
+     *
+     * @return this
+     */
+    public PercentEncoder append(char c) {
+        ensure(1);
+        buffer[size++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * Retrieves how many bytes have been written since the encoder was created or reset.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Empties the buffer, keeping its capacity.
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * Writes what's been encoded to <code>out</code>.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, size);
+    }
+
+    /**
+     * Appends what's been encoded to <code>out</code>.
+     */
+    public void appendTo(StringBuilder out) {
+        for (int i = 0; i < size; i++) {
+            out.append((char) buffer[i]);
+        }
+    }
+
+    /**
+     * Copies what's been encoded.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, size, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Counts how many bytes {@link #encode(CharSequence, Charset)} would append, without appending
+     * them.
+     */
+    public static int encodedLength(CharSequence value, Charset charset) {
+        if (!isAsciiCompatible(charset)) {
+            return encodedLength(value.toString().getBytes(charset), FORM_SAFE, true);
+        }
+        int length = 0;
+        int i = 0;
+        int end = value.length();
+        while (i < end) {
+            char c = value.charAt(i);
+            if (c < 128) {
+                length += FORM_SAFE[c] || c == ' ' ? 1 : 3;
+                i++;
+            } else {
+                int run = nonAsciiRun(value, i);
+                length += encodedLength(value.subSequence(i, run).toString().getBytes(charset), FORM_SAFE, true);
+                i = run;
+            }
+        }
+        return length;
+    }
+
+    private PercentEncoder encode(CharSequence value, Charset charset, boolean[] safe, boolean spaceAsPlus) {
+        if (!isAsciiCompatible(charset)) {
+            return encode(value.toString().getBytes(charset), safe, spaceAsPlus);
+        }
+        int i = 0;
+        int end = value.length();
+        // at most three bytes for each character that's ASCII, so only runs of others need more
+        ensure(3 * end);
+        while (i < end) {
+            char c = value.charAt(i);
+            if (c < 128) {
+                if (safe[c]) {
+                    buffer[size++] = (byte) c;
+                } else if (c == ' ' && spaceAsPlus) {
+                    buffer[size++] = '+';
+                } else {
+                    escape(c);
+                }
+                i++;
+            } else {
+                int run = nonAsciiRun(value, i);
+                encode(value.subSequence(i, run).toString().getBytes(charset), safe, spaceAsPlus);
+                ensure(3 * (end - run));
+                i = run;
+            }
+        }
+        return this;
+    }
+
+    private PercentEncoder encode(byte[] bytes, boolean[] safe, boolean spaceAsPlus) {
+        ensure(3 * bytes.length);
+        for (byte b : bytes) {
+            int c = b & 0xFF;
+            if (c < 128 && safe[c]) {
+                buffer[size++] = b;
+            } else if (c == ' ' && spaceAsPlus) {
+                buffer[size++] = '+';
+            } else {
+                escape(c);
+            }
+        }
+        return this;
+    }
+
+    private static int encodedLength(byte[] bytes, boolean[] safe, boolean spaceAsPlus) {
+        int length = 0;
+        for (byte b : bytes) {
+            int c = b & 0xFF;
+            length += (c < 128 && safe[c]) || (c == ' ' && spaceAsPlus) ? 1 : 3;
+        }
+        return length;
+    }
+
+    private void escape(int c) {
+        buffer[size++] = '%';
+        buffer[size++] = HEX[c >> 4];
+        buffer[size++] = HEX[c & 0xF];
+    }
+
+    /**
+     * Finds the end of the run of non-ASCII characters starting at <code>start</code>, which keeps
+     * surrogate pairs together.
+     */
+    private static int nonAsciiRun(CharSequence value, int start) {
+        int end = start + 1;
+        while (end < value.length() && value.charAt(end) >= 128) {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.ISO_8859_1)
+                || charset.equals(StandardCharsets.US_ASCII);
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
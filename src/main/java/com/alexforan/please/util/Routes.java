@@ -0,0 +1,34 @@
+package com.alexforan.please.util;
+
+import java.net.URI;
+import java.util.Locale;
+
+/**
+ * Names the route a request takes - its scheme, host and port - for limits and breakers that apply
+ * to each server separately.
+ *
+ * @author forana
+ */
+public class Routes {
+    private Routes() {
+    }
+
+    /**
+     * @return The route, such as <code>https://example.com:443</code>.
+     */
+    public static String of(URI uri) {
+        String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase(Locale.ROOT);
+        int port = uri.getPort();
+        if (port < 0) {
+            port = scheme.equals("https") ? 443 : 80;
+        }
+        return scheme + "://" + String.valueOf(uri.getHost()).toLowerCase(Locale.ROOT) + ":" + port;
+    }
+
+    /**
+     * @return The route of <code>url</code>.
+     */
+    public static String of(String url) {
+        return of(URI.create(url));
+    }
+}
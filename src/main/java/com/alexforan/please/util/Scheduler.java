@@ -0,0 +1,41 @@
+package com.alexforan.please.util;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single daemon thread for short timed tasks, such as aborting a request whose deadline has
+ * passed. Tasks must not block.
+ *
+ * Cancelled tasks are removed from the queue immediately, so scheduling a task for every request
+ * and cancelling it when the request finishes early costs nothing once it's done.
+ *
+ * @author forana
+ */
+public class Scheduler {
+    private static final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "please-scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    static {
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    private Scheduler() {
+    }
+
+    /**
+     * Runs <code>task</code> once, after <code>delayMillis</code>.
+     */
+    public static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,96 @@
+package com.alexforan.please.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Collapses concurrent calls that share a key into one. The first caller for a key runs the call,
+ * and anyone asking for the same key before it finishes waits for and receives the same result
+ * (or exception) instead of running their own.
+ *
+ * Results are not remembered - once a call finishes, the next caller for its key starts afresh.
+ *
+ * @author forana
+ */
+public class SingleFlight<K, V> {
+    /**
+     * One caller's part in a call: either running it, or waiting for whoever is.
+     */
+    public class Flight {
+        private final K key;
+
+        private final CompletableFuture<V> shared;
+
+        private final boolean leader;
+
+        private Flight(K key, CompletableFuture<V> shared, boolean leader) {
+            this.key = key;
+            this.shared = shared;
+            this.leader = leader;
+        }
+
+        /**
+         * Whether this caller runs the call, and must settle it with {@link #complete(Object)},
+         * {@link #fail(Throwable)} or {@link #abandon()}.
+         */
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * Retrieves a future for the result of the call, for a caller that isn't running it.
+         * Cancelling it stops only this caller's wait.
+         */
+        public CompletableFuture<V> getResult() {
+            CompletableFuture<V> mine = new CompletableFuture<>();
+            shared.whenComplete((value, error) -> {
+                if (error == null) {
+                    mine.complete(value);
+                } else {
+                    mine.completeExceptionally(error);
+                }
+            });
+            return mine;
+        }
+
+        /**
+         * Whether the caller running the call gave up on it, rather than it failing. Anyone
+         * waiting who still wants the result should {@link SingleFlight#join(Object)} again.
+         */
+        public boolean isAbandoned() {
+            return shared.isCancelled();
+        }
+
+        public void complete(V value) {
+            // forgotten first, so that nobody joins a call that's already over
+            inFlight.remove(key, shared);
+            shared.complete(value);
+        }
+
+        public void fail(Throwable error) {
+            inFlight.remove(key, shared);
+            shared.completeExceptionally(error);
+        }
+
+        /**
+         * Gives up on the call without a result, such as when the caller running it was aborted.
+         */
+        public void abandon() {
+            inFlight.remove(key, shared);
+            shared.cancel(false);
+        }
+    }
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Takes part in the call for <code>key</code> - running it if nobody else is, or waiting for
+     * the one already running.
+     */
+    public Flight join(K key) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+        return running == null ? new Flight(key, mine, true) : new Flight(key, running, false);
+    }
+}
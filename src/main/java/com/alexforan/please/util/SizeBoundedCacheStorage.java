@@ -0,0 +1,213 @@
+package com.alexforan.please.util;
+
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.http.Header;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.client.cache.Resource;
+
+/**
+ * HttpCacheStorage that keeps entries in least-recently-used order and evicts the oldest once the
+ * combined size of bodies and headers goes over a byte limit.
+ *
+ * Bodies themselves live wherever the cache's ResourceFactory puts them (on the heap or on disk).
+ * An entry that's been evicted or replaced may still be in use by a request that read it a moment
+ * before, so - as with ManagedHttpCacheStorage - a body is only disposed of once no entry that
+ * holds it is reachable any more. That's noticed on the next write to the storage, and the body is
+ * disposed of after the lock has been let go, since disposing of a body on disk deletes a file.
+ *
+ * @author forana
+ */
+public class SizeBoundedCacheStorage implements HttpCacheStorage {
+    // rough per-entry bookkeeping cost on top of headers and body
+    private static final long ENTRY_OVERHEAD = 256;
+
+    private final long maxBytes;
+
+    private final LinkedHashMap<String, HttpCacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final ReferenceQueue<HttpCacheEntry> unreachable = new ReferenceQueue<>();
+
+    // keeps the references themselves reachable until they're enqueued
+    private final Set<ResourceReference> references = new HashSet<>();
+
+    // how many stored entries, reachable or not yet collected, hold each body
+    private final Map<Resource, Integer> holders = new IdentityHashMap<>();
+
+    private long size;
+
+    /**
+     * @param maxBytes The most that bodies and headers of all entries may add up to.
+     */
+    public SizeBoundedCacheStorage(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void putEntry(String key, HttpCacheEntry entry) throws IOException {
+        List<Resource> disposable;
+        lock.lock();
+        try {
+            replace(key, entry);
+            disposable = reclaim();
+        } finally {
+            lock.unlock();
+        }
+        dispose(disposable);
+    }
+
+    @Override
+    public HttpCacheEntry getEntry(String key) throws IOException {
+        lock.lock();
+        try {
+            return entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void removeEntry(String key) throws IOException {
+        List<Resource> disposable;
+        lock.lock();
+        try {
+            HttpCacheEntry removed = entries.remove(key);
+            if (removed != null) {
+                size -= sizeOf(removed);
+            }
+            disposable = reclaim();
+        } finally {
+            lock.unlock();
+        }
+        dispose(disposable);
+    }
+
+    @Override
+    public void updateEntry(String key, HttpCacheUpdateCallback callback) throws IOException {
+        List<Resource> disposable;
+        lock.lock();
+        try {
+            replace(key, callback.update(entries.get(key)));
+            disposable = reclaim();
+        } finally {
+            lock.unlock();
+        }
+        dispose(disposable);
+    }
+
+    /**
+     * Retrieves the current combined size of all entries, in bytes.
+     */
+    public long getSize() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the number of entries currently stored.
+     */
+    public int getEntryCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores an entry and evicts what no longer fits.
+     */
+    private void replace(String key, HttpCacheEntry entry) {
+        HttpCacheEntry previous = entries.put(key, entry);
+        if (previous != null) {
+            size -= sizeOf(previous);
+        }
+        size += sizeOf(entry);
+        track(entry);
+
+        Iterator<Map.Entry<String, HttpCacheEntry>> eldest = entries.entrySet().iterator();
+        while (size > maxBytes && eldest.hasNext()) {
+            HttpCacheEntry evicted = eldest.next().getValue();
+            eldest.remove();
+            size -= sizeOf(evicted);
+        }
+    }
+
+    private void track(HttpCacheEntry entry) {
+        Resource resource = entry.getResource();
+        if (resource != null) {
+            references.add(new ResourceReference(entry, unreachable));
+            Integer count = holders.get(resource);
+            holders.put(resource, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Forgets the entries that have been garbage collected, returning the bodies that no entry
+     * holds any more.
+     */
+    private List<Resource> reclaim() {
+        List<Resource> disposable = new ArrayList<>(0);
+        Reference<? extends HttpCacheEntry> collected;
+        while ((collected = unreachable.poll()) != null) {
+            ResourceReference reference = (ResourceReference) collected;
+            references.remove(reference);
+            int count = holders.get(reference.resource) - 1;
+            if (count == 0) {
+                holders.remove(reference.resource);
+                disposable.add(reference.resource);
+            } else {
+                holders.put(reference.resource, count);
+            }
+        }
+        return disposable;
+    }
+
+    private static long sizeOf(HttpCacheEntry entry) {
+        long entrySize = ENTRY_OVERHEAD;
+        Resource resource = entry.getResource();
+        if (resource != null) {
+            entrySize += resource.length();
+        }
+        for (Header header : entry.getAllHeaders()) {
+            entrySize += header.getName().length() + header.getValue().length();
+        }
+        return entrySize;
+    }
+
+    private static void dispose(List<Resource> resources) {
+        for (Resource resource : resources) {
+            resource.dispose();
+        }
+    }
+
+    private static class ResourceReference extends PhantomReference<HttpCacheEntry> {
+        private final Resource resource;
+
+        ResourceReference(HttpCacheEntry entry, ReferenceQueue<HttpCacheEntry> queue) {
+            super(entry, queue);
+            this.resource = entry.getResource();
+        }
+    }
+}
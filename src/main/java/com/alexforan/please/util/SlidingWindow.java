@@ -0,0 +1,149 @@
+package com.alexforan.please.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts calls, failures and slow calls over a recent period of time, divided into buckets that
+ * are recycled as the window slides forward.
+ *
+ * Each bucket holds the period it belongs to and a single <code>long</code> with its three counts,
+ * so recording a call is one compare-and-set, and allocates only when it starts a bucket for a new
+ * period. Counts within a bucket saturate at 65535. Lock-free.
+ *
+ * @author forana
+ */
+public class SlidingWindow {
+    private static final long MASK = 0xFFFF;
+
+    private static final long CALL = 1L << 32;
+
+    private static final long FAILURE = 1L << 16;
+
+    private static final long SLOW = 1L;
+
+    private final long bucketMillis;
+
+    // null until a bucket's first call, and after a reset
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    /**
+     * @param durationMillis How far back calls are counted.
+     * @param bucketCount How many pieces the window is divided into - calls expire a whole
+     *            bucket at a time.
+     */
+    public SlidingWindow(long durationMillis, int bucketCount) {
+        if (bucketCount < 1 || durationMillis < bucketCount) {
+            throw new IllegalArgumentException("The window must have at least one bucket of at least 1ms");
+        }
+        this.bucketMillis = durationMillis / bucketCount;
+        this.buckets = new AtomicReferenceArray<>(bucketCount);
+    }
+
+    /**
+     * Counts one call.
+     */
+    public void record(boolean failure, boolean slow) {
+        long period = currentPeriod();
+        int index = (int) Math.floorMod(period, (long) buckets.length());
+        Bucket bucket = buckets.get(index);
+        while (bucket == null || bucket.period < period) {
+            // whoever wins, count in the bucket that's there now
+            buckets.compareAndSet(index, bucket, new Bucket(period));
+            bucket = buckets.get(index);
+        }
+        if (bucket.period > period) {
+            // this thread was held up for long enough that its period has gone
+            return;
+        }
+
+        long increment = CALL + (failure ? FAILURE : 0) + (slow ? SLOW : 0);
+        while (true) {
+            long current = bucket.counts.get();
+            if (((current >>> 32) & MASK) == MASK) {
+                // saturated - dropping the call keeps the rates where they were
+                return;
+            }
+            if (bucket.counts.compareAndSet(current, current + increment)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sums the buckets still inside the window.
+     */
+    public Totals getTotals() {
+        long period = currentPeriod();
+        long calls = 0;
+        long failures = 0;
+        long slow = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && period - bucket.period < buckets.length()) {
+                long counts = bucket.counts.get();
+                calls += (counts >>> 32) & MASK;
+                failures += (counts >>> 16) & MASK;
+                slow += counts & MASK;
+            }
+        }
+        return new Totals(calls, failures, slow);
+    }
+
+    /**
+     * Forgets every call.
+     */
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, null);
+        }
+    }
+
+    private long currentPeriod() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime()) / bucketMillis;
+    }
+
+    /**
+     * The counts for one period. Its period is kept whole, so however long a bucket sits unused it
+     * can never be mistaken for a later one.
+     */
+    private static final class Bucket {
+        private final long period;
+
+        private final AtomicLong counts = new AtomicLong();
+
+        Bucket(long period) {
+            this.period = period;
+        }
+    }
+
+    /**
+     * The counts across a window.
+     */
+    public static final class Totals {
+        private final long calls;
+
+        private final long failures;
+
+        private final long slowCalls;
+
+        Totals(long calls, long failures, long slowCalls) {
+            this.calls = calls;
+            this.failures = failures;
+            this.slowCalls = slowCalls;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getSlowCalls() {
+            return slowCalls;
+        }
+    }
+}
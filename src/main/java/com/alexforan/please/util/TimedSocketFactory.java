@@ -0,0 +1,147 @@
+package com.alexforan.please.util;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Wraps a socket factory so that opening a connection reports its DNS lookup, TCP connect and TLS
+ * handshake times to the {@link ConnectionEvents} in the request's context, if there is one.
+ * Without one, the wrapped factory is called directly.
+ *
+ * HttpClient looks the host up with the pool's {@link DnsResolver} immediately before asking the
+ * socket factory to connect, on the same thread, so the resolver from {@link #dnsResolver()} hands
+ * its time over in a thread local.
+ *
+ * @author forana
+ */
+public class TimedSocketFactory implements ConnectionSocketFactory {
+    private static final ThreadLocal<long[]> lookup = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[] { -1 };
+        }
+    };
+
+    final ConnectionSocketFactory delegate;
+
+    private TimedSocketFactory(ConnectionSocketFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Wraps <code>delegate</code>, keeping it layered if it was.
+     */
+    public static ConnectionSocketFactory wrap(ConnectionSocketFactory delegate) {
+        return delegate instanceof LayeredConnectionSocketFactory
+                ? new Layered((LayeredConnectionSocketFactory) delegate)
+                : new TimedSocketFactory(delegate);
+    }
+
+    /**
+     * Creates the system resolver, timed for the socket factories.
+     */
+    public static DnsResolver dnsResolver() {
+        return new DnsResolver() {
+            @Override
+            public InetAddress[] resolve(String host) throws UnknownHostException {
+                long start = System.nanoTime();
+                InetAddress[] addresses = SystemDefaultDnsResolver.INSTANCE.resolve(host);
+                lookup.get()[0] = System.nanoTime() - start;
+                return addresses;
+            }
+        };
+    }
+
+    @Override
+    public Socket createSocket(HttpContext context) throws IOException {
+        return delegate.createSocket(context);
+    }
+
+    @Override
+    public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+            InetSocketAddress localAddress, HttpContext context) throws IOException {
+        ConnectionEvents events = takeEvents(context);
+        if (events == null) {
+            return delegate.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+        }
+        long start = System.nanoTime();
+        Socket connected = delegate.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+        events.connected(System.nanoTime() - start);
+        return connected;
+    }
+
+    /**
+     * Retrieves the request's listener, reporting the lookup that preceded this connect to it.
+     */
+    static ConnectionEvents takeEvents(HttpContext context) {
+        long[] elapsed = lookup.get();
+        long lookupNanos = elapsed[0];
+        elapsed[0] = -1;
+        ConnectionEvents events = context == null ? null : (ConnectionEvents) context.getAttribute(ConnectionEvents.ATTRIBUTE);
+        if (events != null && lookupNanos >= 0) {
+            events.dnsResolved(lookupNanos);
+        }
+        return events;
+    }
+
+    /**
+     * A TLS factory. Its own <code>connectSocket</code> connects and then handshakes in one call,
+     * so when timing, this does the two steps separately the same way.
+     */
+    private static class Layered extends TimedSocketFactory implements LayeredConnectionSocketFactory {
+        Layered(LayeredConnectionSocketFactory delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host,
+                InetSocketAddress remoteAddress, InetSocketAddress localAddress, HttpContext context)
+                throws IOException {
+            ConnectionEvents events = takeEvents(context);
+            if (events == null) {
+                return delegate.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+            }
+
+            long start = System.nanoTime();
+            Socket plain = PlainConnectionSocketFactory.getSocketFactory().connectSocket(
+                    connectTimeout, socket != null ? socket : createSocket(context), host, remoteAddress,
+                    localAddress, context);
+            long connected = System.nanoTime();
+            events.connected(connected - start);
+
+            if (plain.getSoTimeout() == 0 && connectTimeout > 0) {
+                // as the delegate would, so that a stalled handshake can't hang forever
+                plain.setSoTimeout(connectTimeout);
+            }
+            try {
+                Socket secure = createLayeredSocket(plain, host.getHostName(), remoteAddress.getPort(), context);
+                events.tlsHandshakeCompleted(System.nanoTime() - connected);
+                return secure;
+            } catch (IOException | RuntimeException e) {
+                try {
+                    plain.close();
+                } catch (IOException ignored) {
+                    // already failing
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+                throws IOException {
+            return ((LayeredConnectionSocketFactory) delegate).createLayeredSocket(socket, target, port, context);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.alexforan.please.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket that fills as requests are sent and is drained by extra work done on their
+ * behalf, such as retries or hedged copies. This caps that extra work at a fraction of real
+ * traffic, so that it can't multiply load on a server that's already struggling.
+ *
+ * Every request deposits <code>ratio</code> of a token, up to <code>maxTokens</code>, and every
+ * extra attempt withdraws a whole one. The bucket starts full so that a quiet client can still
+ * retry. Lock-free.
+ *
+ * @author forana
+ */
+public class TokenBudget {
+    // tokens are kept in thousandths so they fit in an AtomicLong
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+
+    private final long capacity;
+
+    private final AtomicLong balance;
+
+    /**
+     * @param ratio The fraction of a token earned by each request - 0.1 allows extra attempts for
+     *            about one request in ten.
+     * @param maxTokens The most that can be saved up, which bounds a burst of extra attempts.
+     */
+    public TokenBudget(double ratio, int maxTokens) {
+        if (ratio < 0 || maxTokens < 1) {
+            throw new IllegalArgumentException("Ratio must be non-negative and maxTokens at least 1");
+        }
+        this.deposit = Math.round(ratio * SCALE);
+        this.capacity = maxTokens * SCALE;
+        this.balance = new AtomicLong(capacity);
+    }
+
+    /**
+     * Credits the budget for one request.
+     */
+    public void deposit() {
+        while (true) {
+            long current = balance.get();
+            long next = Math.min(capacity, current + deposit);
+            if (next == current || balance.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Withdraws one token if there is one.
+     *
+     * @return Whether the extra attempt may go ahead.
+     */
+    public boolean tryWithdraw() {
+        while (true) {
+            long current = balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of whole tokens currently available.
+     */
+    public long getAvailable() {
+        return balance.get() / SCALE;
+    }
+}
@@ -0,0 +1,72 @@
+package com.alexforan.please.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates executors that run each task on a new virtual thread, on Java 21 and later.
+ *
+ * The library is built for Java 8, so the virtual thread API is looked up by reflection once, when
+ * this class is loaded, and the executor it makes is an ordinary {@link ExecutorService}.
+ *
+ * @author forana
+ */
+public class VirtualThreads {
+    private static final Method ofVirtual;
+
+    private static final Method name;
+
+    private static final Method factory;
+
+    private static final Method newThreadPerTaskExecutor;
+
+    static {
+        Method[] methods;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            methods = new Method[] {
+                    Thread.class.getMethod("ofVirtual"),
+                    builder.getMethod("name", String.class, long.class),
+                    builder.getMethod("factory"),
+                    Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class) };
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            methods = new Method[4];
+        }
+        ofVirtual = methods[0];
+        name = methods[1];
+        factory = methods[2];
+        newThreadPerTaskExecutor = methods[3];
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Whether this JVM has virtual threads.
+     */
+    public static boolean isSupported() {
+        return ofVirtual != null;
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task.
+     *
+     * @param prefix The start of the threads' names, which are numbered from 1.
+     * @throws UnsupportedOperationException If this JVM doesn't have virtual threads.
+     */
+    public static ExecutorService newExecutor(String prefix) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+        }
+        try {
+            Object builder = name.invoke(ofVirtual.invoke(null), prefix, 1L);
+            ThreadFactory threads = (ThreadFactory) factory.invoke(builder);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threads);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new UnsupportedOperationException("Virtual threads aren't available", e);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.alexforan.please;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.alexforan.please.CircuitBreakerPolicy.State;
+import com.alexforan.please.exceptions.HTTPCircuitOpenException;
+
+public class CircuitBreakerPolicyTest {
+    private static final URI ROUTE = URI.create("http://example.com/");
+
+    private static final String URL = ROUTE.toString();
+
+    private static CircuitBreakerPolicy policy(int probes) {
+        return new CircuitBreakerPolicy()
+                .setMinimumCalls(4)
+                .setFailureRateThreshold(0.5)
+                .setOpenDuration(50, TimeUnit.MILLISECONDS)
+                .setProbes(probes);
+    }
+
+    private static void trip(CircuitBreakerPolicy policy) throws HTTPCircuitOpenException {
+        for (int i = 0; i < 4; i++) {
+            policy.acquire(ROUTE).record(503, 0);
+        }
+        assertEquals(State.OPEN, policy.getState(URL));
+    }
+
+    private static void awaitOpenDuration() throws InterruptedException {
+        Thread.sleep(100);
+    }
+
+    private static void assertRejected(CircuitBreakerPolicy policy) {
+        try {
+            policy.acquire(ROUTE);
+            fail("Expected the breaker to refuse");
+        } catch (HTTPCircuitOpenException e) {
+        }
+    }
+
+    @Test
+    public void testOpens() throws HTTPCircuitOpenException {
+        CircuitBreakerPolicy policy = policy(1);
+        policy.acquire(ROUTE).record(200, 0);
+        policy.acquire(ROUTE).record(200, 0);
+        policy.acquire(ROUTE).record(503, 0);
+        assertEquals(State.CLOSED, policy.getState(URL));
+        policy.acquire(ROUTE).record(-1, 0);
+        assertEquals(State.OPEN, policy.getState(URL));
+
+        assertRejected(policy);
+        assertEquals(1, policy.getRejected());
+        assertEquals(1, policy.getTransitions(State.OPEN));
+    }
+
+    @Test
+    public void testRecovers() throws Exception {
+        CircuitBreakerPolicy policy = policy(2);
+        trip(policy);
+        awaitOpenDuration();
+
+        CircuitBreakerPolicy.Permit first = policy.acquire(ROUTE);
+        assertEquals(State.HALF_OPEN, policy.getState(URL));
+        CircuitBreakerPolicy.Permit second = policy.acquire(ROUTE);
+        // only as many probes as configured
+        assertRejected(policy);
+
+        first.record(200, 0);
+        assertEquals(State.HALF_OPEN, policy.getState(URL));
+        second.record(200, 0);
+        assertEquals(State.CLOSED, policy.getState(URL));
+        assertEquals(1, policy.getTransitions(State.CLOSED));
+    }
+
+    @Test
+    public void testFailedProbeReopens() throws Exception {
+        CircuitBreakerPolicy policy = policy(2);
+        trip(policy);
+        awaitOpenDuration();
+
+        policy.acquire(ROUTE).record(200, 0);
+        policy.acquire(ROUTE).record(502, 0);
+        assertEquals(State.OPEN, policy.getState(URL));
+        assertEquals(2, policy.getTransitions(State.OPEN));
+    }
+
+    @Test
+    public void testReleasedProbe() throws Exception {
+        CircuitBreakerPolicy policy = policy(1);
+        trip(policy);
+        awaitOpenDuration();
+
+        policy.acquire(ROUTE).release();
+        // the probe was handed back, so another may go
+        policy.acquire(ROUTE).record(200, 0);
+        assertEquals(State.CLOSED, policy.getState(URL));
+    }
+
+    @Test
+    public void testStragglerFromClosed() throws Exception {
+        CircuitBreakerPolicy policy = policy(1);
+        CircuitBreakerPolicy.Permit straggler = policy.acquire(ROUTE);
+        trip(policy);
+        awaitOpenDuration();
+        CircuitBreakerPolicy.Permit probe = policy.acquire(ROUTE);
+
+        // neither fails nor passes the trial
+        straggler.record(503, 0);
+        assertEquals(State.HALF_OPEN, policy.getState(URL));
+        straggler.record(200, 0);
+        assertEquals(State.HALF_OPEN, policy.getState(URL));
+
+        probe.record(200, 0);
+        assertEquals(State.CLOSED, policy.getState(URL));
+    }
+
+    @Test
+    public void testProbeFromEarlierTrial() throws Exception {
+        CircuitBreakerPolicy policy = policy(2);
+        trip(policy);
+        awaitOpenDuration();
+        CircuitBreakerPolicy.Permit old = policy.acquire(ROUTE);
+        policy.acquire(ROUTE).record(503, 0);
+        assertEquals(State.OPEN, policy.getState(URL));
+
+        awaitOpenDuration();
+        CircuitBreakerPolicy.Permit probe = policy.acquire(ROUTE);
+        assertEquals(State.HALF_OPEN, policy.getState(URL));
+
+        // an old probe neither counts towards the new trial nor frees up one of its probes
+        old.record(200, 0);
+        old.release();
+        probe.record(200, 0);
+        assertEquals(State.HALF_OPEN, policy.getState(URL));
+        policy.acquire(ROUTE);
+        assertRejected(policy);
+    }
+
+    @Test
+    public void testStragglerAfterRecovery() throws Exception {
+        CircuitBreakerPolicy policy = policy(1);
+        CircuitBreakerPolicy.Permit straggler = policy.acquire(ROUTE);
+        trip(policy);
+        awaitOpenDuration();
+        policy.acquire(ROUTE).record(200, 0);
+        assertEquals(State.CLOSED, policy.getState(URL));
+
+        // the fresh window doesn't count calls sent before the breaker opened
+        straggler.record(503, 0);
+        policy.acquire(ROUTE).record(200, 0);
+        policy.acquire(ROUTE).record(200, 0);
+        policy.acquire(ROUTE).record(503, 0);
+        assertEquals(State.CLOSED, policy.getState(URL));
+    }
+}
@@ -1,11 +1,25 @@
 package com.alexforan.please;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
 import com.alexforan.please.HTTPRequestFactory;
+import com.alexforan.please.exceptions.HTTPCircuitOpenException;
 import com.alexforan.please.exceptions.HTTPException;
+import com.alexforan.please.exceptions.HTTPLimitExceededException;
+import com.alexforan.please.exceptions.HTTPResponseException;
+import com.alexforan.please.util.LatencyHistogram;
+import com.alexforan.please.util.VirtualThreads;
 import com.fasterxml.jackson.databind.JsonNode;
 
 public class HTTPRequestFactoryTest {
@@ -35,4 +49,287 @@ public class HTTPRequestFactoryTest {
         assertEquals("test", headers.get("X-Test").asText());
         assertEquals("still", headers.get("X-Test-Again").asText());
     }
+
+    @Test
+    public void testCache() throws HTTPException {
+        HTTPCache cache = new HTTPCache();
+        HTTPRequestFactory factory = new HTTPRequestFactory("http://httpbin.org")
+                .setCache(cache);
+
+        assertFalse(factory.get("/cache/60").sendAndVerify().isFromCache());
+        assertTrue(factory.get("/cache/60").sendAndVerify().isFromCache());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testBatch() throws HTTPException {
+        HTTPRequestFactory factory = new HTTPRequestFactory("http://httpbin.org");
+        List<HTTPBatch.Result> results = factory
+                .batch(Arrays.asList(
+                        factory.get("/get").parameter("n", "0"),
+                        factory.get("/status/404"),
+                        factory.get("/get").parameter("n", "2")))
+                .setConcurrency(2)
+                .setVerify(true)
+                .send();
+
+        assertEquals(3, results.size());
+        assertEquals("0", results.get(0).getResponse().getJSON().get("args").get("n").asText());
+        assertFalse(results.get(1).isSuccess());
+        assertEquals("2", results.get(2).getResponse().getJSON().get("args").get("n").asText());
+    }
+
+    @Test
+    public void testBatchFailFastReleasesConnections() throws Exception {
+        try (LocalServer server = new LocalServer()) {
+            HTTPRequestFactory factory = new HTTPRequestFactory(server.getURL())
+                    .setMaxConnectionsPerRoute(3)
+                    .setLeaseTimeout(2, TimeUnit.SECONDS);
+            // one at a time, so both successes are collected (each holding a connection) before the
+            // failure ends the batch - any that aren't given back starve the next batch
+            for (int i = 0; i < 5; i++) {
+                try {
+                    factory.batch(Arrays.asList(
+                            factory.get("/status/200/20000"),
+                            factory.get("/status/200/20000"),
+                            factory.get("/status/500")))
+                            .setConcurrency(1)
+                            .setVerify(true)
+                            .setErrorMode(HTTPBatch.ErrorMode.FAIL_FAST)
+                            .send();
+                    fail("Expected an exception");
+                } catch (HTTPResponseException e) {
+                }
+            }
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testCoalesceRequests() throws HTTPException {
+        HTTPRequestFactory factory = new HTTPRequestFactory("http://httpbin.org")
+                .setCoalesceRequests(true);
+        List<HTTPBatch.Result> results = factory
+                .batch(Arrays.asList(factory.get("/uuid"), factory.get("/uuid"), factory.get("/uuid")))
+                .setConcurrency(3)
+                .setVerify(true)
+                .send();
+
+        for (HTTPBatch.Result result : results) {
+            assertTrue(result.isSuccess());
+            assertTrue(result.getResponse().getJSON().has("uuid"));
+        }
+    }
+
+    @Test
+    public void testHTTP2() throws HTTPException {
+        HTTPRequestFactory factory = new HTTPRequestFactory("https://httpbin.org")
+                .setProtocol(HTTPProtocol.HTTP_2);
+        HTTPResponse response = factory.get("/get").parameter("a", "b").sendAndVerify();
+        assertEquals("b", response.getJSON().get("args").get("a").asText());
+        assertEquals("OK", response.getStatusText());
+        factory.close();
+    }
+
+    @Test
+    public void testHTTP2RejectsCache() {
+        try {
+            new HTTPRequestFactory("https://httpbin.org")
+                    .setProtocol(HTTPProtocol.HTTP_2)
+                    .setCache(new HTTPCache());
+            fail("Expected an exception");
+        } catch (IllegalStateException e) {
+        }
+
+        try {
+            new HTTPRequestFactory("https://httpbin.org")
+                    .setCache(new HTTPCache())
+                    .setProtocol(HTTPProtocol.HTTP_2);
+            fail("Expected an exception");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void testRetryPolicy() throws HTTPException {
+        RetryPolicy policy = new RetryPolicy()
+                .setMaxAttempts(3)
+                .setBaseDelay(10, TimeUnit.MILLISECONDS);
+        HTTPRequestFactory factory = new HTTPRequestFactory("http://httpbin.org")
+                .setRetryPolicy(policy);
+
+        assertEquals(503, factory.get("/status/503").send().getStatus());
+        assertEquals(2, policy.getRetries());
+
+        // not idempotent, so never retried
+        assertEquals(503, factory.post("/status/503").send().getStatus());
+        assertEquals(2, policy.getRetries());
+    }
+
+    @Test
+    public void testHedgePolicy() throws HTTPException {
+        HedgePolicy policy = new HedgePolicy()
+                .setDelay(0, TimeUnit.MILLISECONDS)
+                .setBudget(0.0, 1);
+        HTTPRequestFactory factory = new HTTPRequestFactory("http://httpbin.org")
+                .setHedgePolicy(policy);
+
+        // hedged immediately, and whichever copy answers first is returned
+        assertTrue(factory.get("/get").send().isOk());
+        assertEquals(1, policy.getHedges());
+
+        // the budget is spent
+        assertTrue(factory.get("/get").send().isOk());
+        assertEquals(1, policy.getHedges());
+
+        // not safe, so never hedged
+        factory.setHedgePolicy(new HedgePolicy().setDelay(0, TimeUnit.MILLISECONDS));
+        assertTrue(factory.post("/post").send().isOk());
+        assertEquals(0, factory.getHedgePolicy().getHedges());
+    }
+
+    @Test
+    public void testCircuitBreakerPolicy() throws HTTPException {
+        CircuitBreakerPolicy policy = new CircuitBreakerPolicy()
+                .setMinimumCalls(2);
+        HTTPRequestFactory factory = new HTTPRequestFactory("http://httpbin.org")
+                .setCircuitBreakerPolicy(policy);
+
+        assertEquals(503, factory.get("/status/503").send().getStatus());
+        assertEquals(503, factory.get("/status/503").send().getStatus());
+        assertEquals(CircuitBreakerPolicy.State.OPEN, policy.getState("http://httpbin.org/"));
+
+        try {
+            factory.get("/get").send();
+            fail("Expected the breaker to reject the request");
+        } catch (HTTPCircuitOpenException e) {
+            // expected
+        }
+        assertEquals(1, policy.getRejected());
+        assertEquals(1, policy.getTransitions(CircuitBreakerPolicy.State.OPEN));
+    }
+
+    @Test
+    public void testRateLimitPolicy() throws HTTPException {
+        RateLimitPolicy policy = new RateLimitPolicy()
+                .setRate(1, 1, TimeUnit.MINUTES)
+                .setMode(LimitMode.REJECT);
+        HTTPRequestFactory factory = new HTTPRequestFactory("http://httpbin.org")
+                .setRateLimitPolicy(policy);
+
+        assertTrue(factory.get("/get").send().isOk());
+        try {
+            factory.get("/get").send();
+            fail("Expected the rate limit to reject the request");
+        } catch (HTTPLimitExceededException e) {
+            // expected
+        }
+        assertEquals(1, policy.getRejected());
+    }
+
+    @Test
+    public void testConcurrencyLimitPolicy() throws Exception {
+        ConcurrencyLimitPolicy policy = new ConcurrencyLimitPolicy()
+                .setLimits(2, 1, 10);
+        HTTPRequestFactory factory = new HTTPRequestFactory("http://httpbin.org")
+                .setConcurrencyLimitPolicy(policy);
+
+        List<CompletableFuture<HTTPResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            responses.add(factory.get("/get").sendAsync());
+            assertTrue(policy.getInFlight("http://httpbin.org") <= 2);
+        }
+        for (CompletableFuture<HTTPResponse> response : responses) {
+            assertTrue(response.get().isOk());
+        }
+        assertEquals(0, policy.getInFlight("http://httpbin.org"));
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        HTTPRequestFactory factory = new HTTPRequestFactory("http://httpbin.org");
+        if (!VirtualThreads.isSupported()) {
+            try {
+                factory.setExecutorMode(ExecutorMode.VIRTUAL_THREADS);
+                fail("Expected an exception");
+            } catch (UnsupportedOperationException e) {
+            }
+            assertEquals(ExecutorMode.PLATFORM_THREADS, factory.getExecutorMode());
+            return;
+        }
+
+        factory.setExecutorMode(ExecutorMode.VIRTUAL_THREADS);
+        List<CompletableFuture<HTTPResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(factory.get("/get").parameter("i", i).sendAsync());
+        }
+        for (int i = 0; i < 10; i++) {
+            JsonNode body = futures.get(i).get().getJSON();
+            assertEquals(String.valueOf(i), body.get("args").get("i").asText());
+        }
+        factory.close();
+    }
+
+    @Test
+    public void testTemplate() throws HTTPException {
+        HTTPRequestFactory factory = new HTTPRequestFactory("http://httpbin.org")
+                .addDefaultHeader("X-Test", "test");
+        HTTPRequestTemplate template = factory.template("GET", "/anything/{name}");
+        assertEquals(Arrays.asList("name"), template.getVariables());
+
+        JsonNode body = template.request("a b")
+                .header("X-Test-Again", "still")
+                .parameter("x", "y")
+                .sendAndVerify()
+                .getJSON();
+        assertEquals("http://httpbin.org/anything/a%20b?x=y", body.get("url").asText());
+        assertEquals("test", body.get("headers").get("X-Test").asText());
+        assertEquals("still", body.get("headers").get("X-Test-Again").asText());
+
+        assertEquals(418, factory.template("GET", "/status/418").request().send().getStatus());
+
+        try {
+            template.request();
+            fail("Expected an exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testMetricsRecorder() throws HTTPException {
+        MetricsRecorder metrics = new MetricsRecorder();
+        HTTPRequestFactory factory = new HTTPRequestFactory("http://httpbin.org")
+                .addListener(metrics);
+
+        factory.get("/get").send().getBodyText();
+        factory.get("/status/404").send().getBodyText();
+
+        LatencyHistogram firstByte = metrics.getHistogram("http://httpbin.org", MetricsRecorder.Phase.FIRST_BYTE);
+        assertEquals(2, firstByte.getCount());
+        assertTrue(firstByte.getValueAtPercentile(0.5, TimeUnit.NANOSECONDS) > 0);
+        assertEquals(2, metrics.getHistogram("http://httpbin.org", MetricsRecorder.Phase.TOTAL).getCount());
+        assertEquals(1, metrics.getHistogram("http://httpbin.org", MetricsRecorder.Phase.CONNECT).getCount());
+        assertEquals(Long.valueOf(1), metrics.getStatusCounts().get(200));
+        assertEquals(Long.valueOf(1), metrics.getStatusCounts().get(404));
+        assertTrue(metrics.getBytesReceived() > 0);
+    }
+
+    @Test
+    public void testVerifyReleasesConnections() throws Exception {
+        try (LocalServer server = new LocalServer()) {
+            HTTPRequestFactory factory = new HTTPRequestFactory(server.getURL())
+                    .setMaxConnectionsPerRoute(2)
+                    .setLeaseTimeout(2, TimeUnit.SECONDS);
+            // a large chunked body isn't read eagerly, so only verify() can give the connection back
+            for (int i = 0; i < 10; i++) {
+                try {
+                    factory.get("/status/500/20000").sendAndVerify();
+                    fail("Expected an exception");
+                } catch (HTTPResponseException e) {
+                }
+            }
+            factory.close();
+        }
+    }
 }
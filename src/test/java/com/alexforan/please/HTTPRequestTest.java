@@ -8,14 +8,21 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
 import com.alexforan.please.exceptions.HTTPException;
 import com.alexforan.please.exceptions.HTTPRequestException;
 import com.alexforan.please.exceptions.HTTPResponseException;
+import com.alexforan.please.exceptions.HTTPTimeoutException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
@@ -33,6 +40,60 @@ public class HTTPRequestTest {
         }
     }
 
+    @Test
+    public void testSendAsync() throws InterruptedException, ExecutionException, HTTPException {
+        JsonNode args = Please.get("http://httpbin.org/get")
+                .parameter("hey", "listen")
+                .sendAsync()
+                .get()
+                .getJSON()
+                .get("args");
+
+        assertEquals("listen", args.get("hey").asText());
+    }
+
+    @Test
+    public void testSendAndVerifyAsync() throws InterruptedException, HTTPException {
+        try {
+            Please.get("https://httpbin.org/status/369").sendAndVerifyAsync().get();
+            fail("Expected an exception");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HTTPResponseException);
+        }
+    }
+
+    @Test
+    public void testTimeouts() throws HTTPException {
+        try {
+            Please.get("https://httpbin.org/delay/3")
+                    .setReadTimeout(1, TimeUnit.SECONDS)
+                    .send();
+            fail("Expected an exception");
+        } catch (HTTPTimeoutException e) {
+        }
+
+        try {
+            Please.get("https://httpbin.org/delay/3")
+                    .setDeadline(1, TimeUnit.SECONDS)
+                    .send();
+            fail("Expected an exception");
+        } catch (HTTPTimeoutException e) {
+        }
+    }
+
+    @Test
+    public void testDeadlineEndsWithBody() throws Exception {
+        try (LocalServer server = new LocalServer()) {
+            // warm up first, so the first timed send doesn't take most of its second loading classes
+            Please.get(server.getURL() + "/status/200/20000").send().getBytes();
+            HTTPRequest request = Please.get(server.getURL() + "/status/200/20000?delay=600")
+                    .setDeadline(1, TimeUnit.SECONDS);
+            // each send has its own second, so the first one's clock mustn't cut short the second
+            assertEquals(20000, request.send().getBytes().length);
+            assertEquals(20000, request.send().getBytes().length);
+        }
+    }
+
     @Test
     public void testCertificateVerification() throws HTTPException {
         // this should throw an exception
@@ -149,6 +210,24 @@ public class HTTPRequestTest {
         assertEquals(sentBody.get("6x9").asText(), receivedBody.get("6x9").asText());
     }
 
+    @Test
+    public void testTypedJSONBody() throws HTTPException, IOException {
+        Map<String, Integer> sentBody = new HashMap<>();
+        sentBody.put("answer", 42);
+        String receivedBodyText = Please.post("http://httpbin.org/post")
+                .jsonBody(sentBody)
+                .sendAndVerify()
+                .getJSON()
+                .get("data")
+                .asText();
+
+        Map<String, Integer> receivedBody = new ObjectMapper()
+                .readValue(receivedBodyText, new TypeReference<Map<String, Integer>>() {
+                });
+
+        assertEquals(sentBody, receivedBody);
+    }
+
     @Test
     public void testStringBody() throws HTTPException {
         String sentBody = "foxtrot uniform";
@@ -162,6 +241,40 @@ public class HTTPRequestTest {
         assertEquals(sentBody, receivedBody);
     }
     
+    @Test
+    public void testFileBody() throws HTTPException, IOException {
+        Path file = Files.createTempFile("test", "txt");
+        Files.write(file, "Walking through the Mists".getBytes());
+
+        assertEquals("Walking through the Mists", Please.post("http://httpbin.org/post")
+                .body(file)
+                .sendAndVerify()
+                .getJSON()
+                .get("data")
+                .asText());
+        assertEquals("through", Please.post("http://httpbin.org/post")
+                .body(file, 8, 7)
+                .sendAndVerifyAsync()
+                .join()
+                .getJSON()
+                .get("data")
+                .asText());
+    }
+
+    @Test
+    public void testSaveTo() throws HTTPException, IOException {
+        Path file = Files.createTempFile("test", "bin");
+        HTTPResponse response = Please.get("http://httpbin.org/range/100")
+                .range(50, -1)
+                .sendAndVerify();
+        assertEquals(206, response.getStatus());
+        assertEquals(50, response.saveTo(file, 50));
+        assertEquals(100, Files.size(file));
+
+        assertEquals(100, Please.get("http://httpbin.org/range/100").sendAndVerify().saveTo(file));
+        assertEquals(100, Files.size(file));
+    }
+
     @Test
     public void testFormBody() throws HTTPException {
         JsonNode form = Please.post("http://httpbin.org/post")
@@ -173,7 +286,8 @@ public class HTTPRequestTest {
                                 put("daylight", "burning");
                         }})
                         .addAll("k", Arrays.asList("a", "b", "c"))
-                        .add("6x9base7", 42))
+                        .add("6x9base7", 42)
+                        .add("odd", "a b&c=d/\u00e9"))
                 .sendAndVerify()
                 .getJSON()
                 .get("form");
@@ -182,6 +296,16 @@ public class HTTPRequestTest {
         assertEquals("burning", form.get("daylight").asText());
         assertEquals(42, form.get("6x9base7").asInt());
         assertEquals(3, form.get("k").size());
+        assertEquals("a b&c=d/\u00e9", form.get("odd").asText());
+    }
+
+    @Test
+    public void testBuildURI() throws HTTPException {
+        assertEquals("http://httpbin.org/get", Please.get("http://httpbin.org/get").buildURI().toString());
+        assertEquals("http://httpbin.org/get?a=1&b=x+y%2Fz#top", Please.get("http://httpbin.org/get?a=1#top")
+                .parameter("b", "x y/z")
+                .buildURI()
+                .toString());
     }
 
     @Test
@@ -4,7 +4,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 import org.junit.Test;
@@ -12,6 +16,10 @@ import org.junit.Test;
 import com.alexforan.please.HTTPResponse;
 import com.alexforan.please.Please;
 import com.alexforan.please.exceptions.HTTPException;
+import com.alexforan.please.exceptions.HTTPResponseException;
+import com.alexforan.please.util.BufferPool;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 
 public class HTTPResponseTest {
     @Test
@@ -56,6 +64,52 @@ public class HTTPResponseTest {
 
     // this is where a testGetJSON() would be if it wasn't used by a number of other tests already
 
+    @Test
+    public void testGetTypedJSON() throws HTTPException {
+        Map<String, Object> body = Please.get("http://httpbin.org/get?a=b")
+                .sendAndVerify()
+                .getJSON(new TypeReference<Map<String, Object>>() {
+                });
+        assertEquals("b", ((Map<?, ?>) body.get("args")).get("a"));
+
+        String url = Please.get("http://httpbin.org/get")
+                .sendAndVerify()
+                .getJSON(Map.class)
+                .get("url")
+                .toString();
+        assertEquals("http://httpbin.org/get", url);
+    }
+
+    @Test
+    public void testStreamJSON() throws HTTPException {
+        // newline-delimited objects
+        JSONIterator<JsonNode> lines = Please.get("http://httpbin.org/stream/5").sendAndVerify().streamJSON();
+        int count = 0;
+        while (lines.hasNext()) {
+            assertEquals(count, lines.next().get("id").asInt());
+            count++;
+        }
+        assertEquals(5, count);
+    }
+
+    @Test
+    public void testCompressed() throws HTTPException {
+        HTTPResponse gzipped = Please.get("http://httpbin.org/gzip").sendAndVerify();
+        assertTrue(gzipped.isCompressed());
+        assertTrue(gzipped.getJSON().get("gzipped").asBoolean());
+
+        HTTPResponse deflated = Please.get("http://httpbin.org/deflate").sendAndVerify();
+        assertTrue(deflated.isCompressed());
+        assertTrue(deflated.getJSON().get("deflated").asBoolean());
+    }
+
+    @Test
+    public void testCompressionDisabled() throws HTTPException {
+        HTTPResponse response = Please.get("http://httpbin.org/get").setCompression(false).sendAndVerify();
+        assertFalse(response.isCompressed());
+        assertFalse(response.getJSON().get("headers").has("Accept-Encoding"));
+    }
+
     @Test
     public void testGetBytes() throws HTTPException {
         HTTPResponse response = Please.get("http://httpbin.org/stream-bytes/1234").sendAndVerify();
@@ -63,6 +117,49 @@ public class HTTPResponseTest {
         assertEquals(1234, response.getBytes().length);
     }
 
+    @Test
+    public void testGetBytesLimit() throws HTTPException {
+        assertEquals(1234, Please.get("http://httpbin.org/stream-bytes/1234")
+                .sendAndVerify()
+                .getBytes(1234).length);
+
+        try {
+            Please.get("http://httpbin.org/stream-bytes/1234").sendAndVerify().getBytes(1233);
+            fail("Expected an exception");
+        } catch (HTTPResponseException e) {
+        }
+    }
+
+    @Test
+    public void testWithBody() throws HTTPException {
+        HTTPRequestFactory factory = new HTTPRequestFactory("http://httpbin.org")
+                .setBufferPool(new BufferPool());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(20000, (int) factory.get("/stream-bytes/20000").sendAndVerify()
+                    .withBody(body -> body.remaining()));
+            assertEquals(1234, factory.get("/stream-bytes/1234").sendAndVerify().getBytes(1234).length);
+        }
+        assertTrue(factory.get("/get").sendAndVerify().getBodyText().contains("httpbin.org"));
+    }
+
+    @Test
+    public void testBodyText() throws HTTPException, IOException {
+        HTTPResponse response = Please.get("http://httpbin.org/encoding/utf8").sendAndVerify();
+        assertEquals(StandardCharsets.UTF_8, response.getCharset());
+        String text = response.getBodyText();
+        assertTrue(text.contains("\u2200"));
+
+        StringBuilder read = new StringBuilder();
+        try (Reader reader = Please.get("http://httpbin.org/encoding/utf8").sendAndVerify().getBodyReader()) {
+            char[] buffer = new char[100];
+            int count;
+            while ((count = reader.read(buffer)) >= 0) {
+                read.append(buffer, 0, count);
+            }
+        }
+        assertEquals(text, read.toString());
+    }
+
     @Test
     public void testDump() throws HTTPException {
         // this really just tests if a NullPointerException occurs
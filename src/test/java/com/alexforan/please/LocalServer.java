@@ -0,0 +1,65 @@
+package com.alexforan.please;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A server on a local port for tests that need responses httpbin can't give, such as large
+ * error bodies. <code>/status/{code}/{size}</code> responds with that status and a chunked body
+ * of that many bytes, after waiting for the <code>delay</code> query parameter in milliseconds.
+ */
+class LocalServer implements AutoCloseable {
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    LocalServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/status/", this::respond);
+        server.start();
+    }
+
+    String getURL() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        int status = Integer.parseInt(path[2]);
+        int size = path.length > 3 ? Integer.parseInt(path[3]) : 0;
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null && query.startsWith("delay=")) {
+            try {
+                Thread.sleep(Long.parseLong(query.substring("delay=".length())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        exchange.sendResponseHeaders(status, 0);
+        try (OutputStream body = exchange.getResponseBody()) {
+            byte[] chunk = new byte[1024];
+            for (int sent = 0; sent < size; sent += chunk.length) {
+                body.write(chunk, 0, Math.min(chunk.length, size - sent));
+            }
+        } catch (IOException e) {
+            // the client gave up on the body
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,106 @@
+package com.alexforan.please.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+public class AdaptiveLimiterTest {
+    @Test
+    public void testPermits() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 10, 2.0, 0.5);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+
+        // abandoned, so the limit stays where it was
+        limiter.release(-1, false);
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(2, limiter.getLimit());
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testQueue() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 1, 2.0, 0.5);
+        assertTrue(limiter.acquire().isDone());
+        CompletableFuture<AdaptiveLimiter> second = limiter.acquire();
+        CompletableFuture<AdaptiveLimiter> third = limiter.acquire();
+        assertFalse(second.isDone());
+        // nobody jumps the queue
+        assertFalse(limiter.tryAcquire());
+
+        second.cancel(false);
+        limiter.release(-1, false);
+        assertTrue(third.isDone());
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void testAdditiveIncrease() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 4, 2.0, 0.5);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        limiter.release(100, false);
+        assertEquals(3, limiter.getLimit());
+
+        // kept busy, it grows to the maximum and no further
+        for (int i = 0; i < 10; i++) {
+            while (limiter.tryAcquire()) {
+                // take every free permit
+            }
+            limiter.release(100, false);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testIdleLimitDoesNotGrow() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 10, 2.0, 0.5);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(100, false);
+        }
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void testMultiplicativeDecrease() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 2, 10, 2.0, 0.5);
+        assertTrue(limiter.tryAcquire());
+        limiter.release(100, true);
+        assertEquals(4, limiter.getLimit());
+        assertTrue(limiter.tryAcquire());
+        limiter.release(100, true);
+        assertEquals(2, limiter.getLimit());
+        assertTrue(limiter.tryAcquire());
+        limiter.release(100, true);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testSlowResponseCountsAsOverload() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 10, 2.0, 0.5);
+        assertTrue(limiter.tryAcquire());
+        limiter.release(100, false);
+        assertEquals(8, limiter.getLimit());
+
+        // within tolerance of the baseline
+        assertTrue(limiter.tryAcquire());
+        limiter.release(200, false);
+        assertEquals(8, limiter.getLimit());
+
+        assertTrue(limiter.tryAcquire());
+        limiter.release(1000, false);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInitialAboveMax() {
+        new AdaptiveLimiter(11, 1, 10, 2.0, 0.5);
+    }
+}
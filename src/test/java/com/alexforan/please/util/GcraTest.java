@@ -0,0 +1,67 @@
+package com.alexforan.please.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class GcraTest {
+    // one permit an hour, so that the time the test takes is lost in the rounding
+    private static final long INTERVAL = TimeUnit.HOURS.toNanos(1);
+
+    private static final long SLACK = TimeUnit.SECONDS.toNanos(10);
+
+    @Test
+    public void testBurst() {
+        Gcra gcra = new Gcra(1, INTERVAL, 3);
+        assertEquals(0, gcra.reserve(0));
+        assertEquals(0, gcra.reserve(0));
+        assertEquals(0, gcra.reserve(0));
+        assertEquals(-1, gcra.reserve(0));
+    }
+
+    @Test
+    public void testWaits() {
+        Gcra gcra = new Gcra(1, INTERVAL, 2);
+        assertEquals(0, gcra.reserve(0));
+        assertEquals(0, gcra.reserve(0));
+        assertAbout(INTERVAL, gcra.reserve(Long.MAX_VALUE));
+        assertAbout(2 * INTERVAL, gcra.reserve(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRefusalReservesNothing() {
+        Gcra gcra = new Gcra(1, INTERVAL, 1);
+        assertEquals(0, gcra.reserve(0));
+        assertEquals(-1, gcra.reserve(INTERVAL / 2));
+        assertEquals(-1, gcra.reserve(0));
+        assertAbout(INTERVAL, gcra.reserve(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRate() {
+        // 4 a second is one every 250ms
+        Gcra gcra = new Gcra(4, TimeUnit.SECONDS.toNanos(1), 1);
+        assertEquals(0, gcra.reserve(0));
+        long wait = gcra.reserve(Long.MAX_VALUE);
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(200));
+        assertTrue(wait <= TimeUnit.MILLISECONDS.toNanos(250));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoPermits() {
+        new Gcra(0, INTERVAL, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoBurst() {
+        new Gcra(1, INTERVAL, 0);
+    }
+
+    private static void assertAbout(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual,
+                actual <= expected && actual > expected - SLACK);
+    }
+}
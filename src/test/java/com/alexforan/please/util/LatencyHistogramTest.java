@@ -0,0 +1,77 @@
+package com.alexforan.please.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(0.99, TimeUnit.NANOSECONDS));
+        assertEquals(0, histogram.getMean(TimeUnit.NANOSECONDS));
+        assertEquals(0, histogram.getMax(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        for (long value = 0; value < 64; value++) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            assertEquals(value, histogram.getValueAtPercentile(0.5, TimeUnit.NANOSECONDS));
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        // the value read back from a bucket is its middle, capped at the largest value recorded
+        for (double value = 64; value < (1L << 41); value *= 1.013) {
+            long recorded = (long) value;
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(recorded);
+            histogram.record(recorded * 2);
+            long read = histogram.getValueAtPercentile(0.5, TimeUnit.NANOSECONDS);
+            assertTrue(recorded + " read back as " + read,
+                    Math.abs(read - recorded) <= recorded / 32);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertEquals(100, histogram.getCount());
+        assertAbout(50, histogram.getValueAtPercentile(0.5, TimeUnit.MILLISECONDS));
+        assertAbout(99, histogram.getValueAtPercentile(0.99, TimeUnit.MILLISECONDS));
+        assertEquals(1, histogram.getValueAtPercentile(0, TimeUnit.MILLISECONDS));
+        // never more than the largest value actually recorded
+        long top = histogram.getValueAtPercentile(1, TimeUnit.NANOSECONDS);
+        assertTrue(top <= TimeUnit.MILLISECONDS.toNanos(100));
+        assertAbout(TimeUnit.MILLISECONDS.toNanos(100), top);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5050) / 100, histogram.getMean(TimeUnit.NANOSECONDS));
+        assertEquals(100, histogram.getMax(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testOutOfRange() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.getMax(TimeUnit.NANOSECONDS));
+
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2, histogram.getCount());
+        assertEquals((1L << 41) - 1, histogram.getMax(TimeUnit.NANOSECONDS));
+        assertAbout((1L << 41) - 1, histogram.getValueAtPercentile(1, TimeUnit.NANOSECONDS));
+    }
+
+    private static void assertAbout(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= Math.max(1, expected / 32));
+    }
+}
@@ -0,0 +1,76 @@
+package com.alexforan.please.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SlidingWindowTest {
+    @Test
+    public void testCounts() {
+        SlidingWindow window = new SlidingWindow(TimeUnit.HOURS.toMillis(1), 10);
+        window.record(false, false);
+        window.record(true, false);
+        window.record(true, true);
+        window.record(false, true);
+        SlidingWindow.Totals totals = window.getTotals();
+        assertEquals(4, totals.getCalls());
+        assertEquals(2, totals.getFailures());
+        assertEquals(2, totals.getSlowCalls());
+    }
+
+    @Test
+    public void testRollover() throws InterruptedException {
+        SlidingWindow window = new SlidingWindow(200, 4);
+        window.record(true, true);
+        window.record(false, false);
+        assertEquals(2, window.getTotals().getCalls());
+
+        // long enough for every bucket to have been recycled
+        Thread.sleep(300);
+        SlidingWindow.Totals totals = window.getTotals();
+        assertEquals(0, totals.getCalls());
+        assertEquals(0, totals.getFailures());
+        assertEquals(0, totals.getSlowCalls());
+
+        window.record(true, false);
+        totals = window.getTotals();
+        assertEquals(1, totals.getCalls());
+        assertEquals(1, totals.getFailures());
+        assertEquals(0, totals.getSlowCalls());
+    }
+
+    @Test
+    public void testSaturation() {
+        SlidingWindow window = new SlidingWindow(TimeUnit.HOURS.toMillis(1), 1);
+        for (int i = 0; i < 70000; i++) {
+            window.record(i % 2 == 0, false);
+        }
+        SlidingWindow.Totals totals = window.getTotals();
+        assertEquals(65535, totals.getCalls());
+        assertEquals(32768, totals.getFailures());
+        assertEquals(0, totals.getSlowCalls());
+    }
+
+    @Test
+    public void testReset() {
+        SlidingWindow window = new SlidingWindow(TimeUnit.HOURS.toMillis(1), 10);
+        for (int i = 0; i < 5; i++) {
+            window.record(true, true);
+        }
+        window.reset();
+        assertEquals(0, window.getTotals().getCalls());
+
+        window.record(false, true);
+        SlidingWindow.Totals totals = window.getTotals();
+        assertEquals(1, totals.getCalls());
+        assertEquals(0, totals.getFailures());
+        assertEquals(1, totals.getSlowCalls());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBucketsTooSmall() {
+        new SlidingWindow(5, 10);
+    }
+}
@@ -0,0 +1,66 @@
+package com.alexforan.please.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TokenBudgetTest {
+    @Test
+    public void testStartsFull() {
+        TokenBudget budget = new TokenBudget(0.1, 3);
+        assertEquals(3, budget.getAvailable());
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+        assertEquals(0, budget.getAvailable());
+    }
+
+    @Test
+    public void testDepositsAddFractions() {
+        TokenBudget budget = new TokenBudget(0.25, 1);
+        assertTrue(budget.tryWithdraw());
+        for (int i = 0; i < 3; i++) {
+            budget.deposit();
+            assertFalse(budget.tryWithdraw());
+        }
+        budget.deposit();
+        assertEquals(1, budget.getAvailable());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+    }
+
+    @Test
+    public void testDepositsAreCapped() {
+        TokenBudget budget = new TokenBudget(0.5, 2);
+        for (int i = 0; i < 100; i++) {
+            budget.deposit();
+        }
+        assertEquals(2, budget.getAvailable());
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+    }
+
+    @Test
+    public void testZeroRatioNeverRefills() {
+        TokenBudget budget = new TokenBudget(0, 1);
+        assertTrue(budget.tryWithdraw());
+        for (int i = 0; i < 100; i++) {
+            budget.deposit();
+        }
+        assertFalse(budget.tryWithdraw());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeRatio() {
+        new TokenBudget(-0.1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoCapacity() {
+        new TokenBudget(0.1, 0);
+    }
+}